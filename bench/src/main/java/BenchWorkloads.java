@@ -0,0 +1,230 @@
+/******************************************************************************
+ *  Compilation:  gradle :bench:compileJava
+ *  Dependencies: TextCompressor.java TST.java BitInput.java BitOutput.java
+ *
+ *  The code under test for the JMH benchmarks in the bench package.
+ *
+ *  JMH will not generate benchmarks in the default package, and a class in a
+ *  named package cannot refer to one in the default package, so each workload
+ *  is built here and handed to the benchmarks as a java.util.function interface.
+ *  Each call through it is monomorphic, so the JIT inlines it away.
+ *
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ *  The {@code BenchWorkloads} class builds the workloads measured by the JMH
+ *  benchmarks: compressing and expanding whole inputs, inserting into and
+ *  searching a {@code TST}, and reading and writing <em>r</em>-bit values.
+ *  {@code BinaryStdIn} and {@code BinaryStdOut} are facades over
+ *  {@code BitInput} and {@code BitOutput}, so their rates are measured there.
+ *
+ *  @author Landon Moceri
+ */
+public final class BenchWorkloads {
+
+    private BenchWorkloads() { }
+
+    // Throws away everything written to it, only counting the bytes
+    private static class CountingChannel implements WritableByteChannel {
+        long count;
+
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            count += n;
+            return n;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() { }
+    }
+
+    /**
+     * Returns a workload that compresses the remaining bytes of a buffer, without moving its position.
+     * @param engine The dictionary engine, "hash" or "tst".
+     * @param bits The widest code.
+     * @return a function from the input to the number of compressed bytes
+     */
+    public static ToLongFunction<ByteBuffer> compress(String engine, int bits) {
+        TextCompressor compressor = new TextCompressor().setEngine(engine).setMaxCodeSize(bits);
+        // The output is flushed after every stream, so one can be reused for all of them
+        CountingChannel sink = new CountingChannel();
+        BitOutput out = new BitOutput(sink);
+        return input -> {
+            sink.count = 0;
+            compressor.compress(new BitInput(input.duplicate()), out);
+            return sink.count;
+        };
+    }
+
+    /**
+     * Returns a workload that expands the remaining bytes of a buffer, without moving its position.
+     * @return a function from the compressed input to the number of expanded bytes
+     */
+    public static ToLongFunction<ByteBuffer> expand() {
+        TextCompressor compressor = new TextCompressor();
+        CountingChannel sink = new CountingChannel();
+        BitOutput out = new BitOutput(sink);
+        return input -> {
+            sink.count = 0;
+            compressor.expand(new BitInput(input.duplicate()), out);
+            return sink.count;
+        };
+    }
+
+    /**
+     * Compresses the remaining bytes of a buffer into a temporary file and maps it, since
+     * the compressed form of a large input may not fit in a single array.
+     * @param input The text to compress.
+     * @param engine The dictionary engine, "hash" or "tst".
+     * @param bits The widest code.
+     * @return the compressed bytes
+     * @throws IOException if the temporary file cannot be written or mapped
+     */
+    public static ByteBuffer compressed(ByteBuffer input, String engine, int bits) throws IOException {
+        Path path = Files.createTempFile("bench", ".lzw");
+        path.toFile().deleteOnExit();
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            BitOutput out = new BitOutput(file);
+            new TextCompressor().setEngine(engine).setMaxCodeSize(bits)
+                    .compress(new BitInput(input.duplicate()), out);
+            return file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+    }
+
+    /**
+     * Returns the strings LZW would put in its dictionary while compressing the text,
+     * in the order it would add them.
+     * @param text The text to parse.
+     * @param maxCodes The most codes to hand out, including the 256 single bytes.
+     * @return the dictionary's strings, longer than one byte
+     */
+    public static byte[][] phrases(byte[] text, int maxCodes) {
+        TST tst = new TST();
+        for (int i = 0; i < 256; i++) {
+            tst.insert(new byte[] {(byte) i}, i);
+        }
+        List<byte[]> phrases = new ArrayList<>();
+        int code = 256;
+        for (int i = 0; i < text.length && code < maxCodes; ) {
+            int length = tst.getLongestPrefixLength(text, i);
+            if (i + length < text.length) {
+                byte[] phrase = Arrays.copyOfRange(text, i, i + length + 1);
+                tst.insert(phrase, code++);
+                phrases.add(phrase);
+            }
+            i += length;
+        }
+        return phrases.toArray(new byte[0][]);
+    }
+
+    /**
+     * Returns a workload that inserts every key into an empty TST.
+     * @return a function from the keys to the code found for the first one
+     */
+    public static ToIntFunction<byte[][]> tstInsert() {
+        return keys -> {
+            TST tst = new TST();
+            for (int i = 0; i < keys.length; i++) {
+                tst.insert(keys[i], i);
+            }
+            return tst.lookup(keys[0]);
+        };
+    }
+
+    /**
+     * Returns a workload that looks up every key in a TST built from the dictionary.
+     * @param dictionary The strings in the TST.
+     * @return a function from the keys to the sum of their codes
+     */
+    public static ToIntFunction<byte[][]> tstLookup(byte[][] dictionary) {
+        TST tst = build(dictionary);
+        return keys -> {
+            int sum = 0;
+            for (byte[] key : keys) {
+                sum += tst.lookup(key);
+            }
+            return sum;
+        };
+    }
+
+    /**
+     * Returns a workload that splits a text into the longest prefixes found in a TST
+     * built from the dictionary, the way compress() does.
+     * @param dictionary The strings in the TST.
+     * @return a function from the text to the number of prefixes it was split into
+     */
+    public static ToIntFunction<byte[]> tstLongestPrefix(byte[][] dictionary) {
+        TST tst = build(dictionary);
+        return text -> {
+            int count = 0;
+            for (int i = 0; i < text.length; count++) {
+                i += Math.max(1, tst.getLongestPrefix(text, i).length);
+            }
+            return count;
+        };
+    }
+
+    // Builds a TST holding every single byte and the given strings
+    private static TST build(byte[][] dictionary) {
+        TST tst = new TST();
+        for (int i = 0; i < 256; i++) {
+            tst.insert(new byte[] {(byte) i}, i);
+        }
+        for (int i = 0; i < dictionary.length; i++) {
+            tst.insert(dictionary[i], 256 + i);
+        }
+        return tst;
+    }
+
+    /**
+     * Returns a workload that reads every whole r-bit value out of the remaining bytes of a buffer.
+     * @param r The width of each value, from 1 to 32.
+     * @return a function from the input to the sum of the values read
+     */
+    public static ToLongFunction<ByteBuffer> bitRead(int r) {
+        return bytes -> {
+            BitInput in = new BitInput(bytes.duplicate());
+            long count = 8L * bytes.remaining() / r;
+            long sum = 0;
+            for (long i = 0; i < count; i++) {
+                sum += in.readInt(r);
+            }
+            return sum;
+        };
+    }
+
+    /**
+     * Returns a workload that writes r-bit values into a buffer, from its start.
+     * @param r The width of each value, from 1 to 32.
+     * @param target Where to write the values, with room for all of them.
+     * @return a function from the values to the number of bytes written
+     */
+    public static ToLongFunction<int[]> bitWrite(int r, ByteBuffer target) {
+        return values -> {
+            target.clear();
+            BitOutput out = new BitOutput(target);
+            for (int value : values) {
+                out.write(value, r);
+            }
+            out.flush();
+            return target.position();
+        };
+    }
+}
@@ -0,0 +1,72 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  Measures reading and writing r-bit values through BitInput and BitOutput,
+ *  which BinaryStdIn and BinaryStdOut are built on, to and from an in-memory
+ *  buffer. Each operation moves one buffer of the given size, and the bytes
+ *  counter gives the rate in bytes of packed bits.
+ *
+ *  @author Landon Moceri
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitIOBenchmark {
+
+    @Param({"1", "8", "9", "12", "16", "20", "32"})
+    public int r;
+
+    @Param({"1M"})
+    public String size;
+
+    private ByteBuffer bytes;
+    private int[] values;
+    private ToLongFunction<ByteBuffer> read;
+    private ToLongFunction<int[]> write;
+
+    @Setup
+    public void setup() {
+        bytes = ByteBuffer.wrap(Corpus.load("random:" + size));
+        // The values that fill the same buffer when written back out
+        values = new int[(int) (8L * bytes.capacity() / r)];
+        Random random = new Random(r);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (r == 32) ? random.nextInt() : random.nextInt(1 << r);
+        }
+        read = Workloads.get("bitRead", r);
+        write = Workloads.get("bitWrite", r, ByteBuffer.allocate(bytes.capacity()));
+    }
+
+    @Benchmark
+    public long read(Bytes counter) {
+        counter.bytes += bytes.remaining();
+        return read.applyAsLong(bytes);
+    }
+
+    @Benchmark
+    public long write(Bytes counter) {
+        long length = write.applyAsLong(values);
+        counter.bytes += length;
+        return length;
+    }
+}
@@ -0,0 +1,25 @@
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ *  Counts the input bytes each benchmark gets through. In throughput mode JMH
+ *  reports it as a secondary result in bytes per second, next to the operations
+ *  per second; divide by 10<sup>6</sup> for MB/s.
+ *
+ *  @author Landon Moceri
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Bytes {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        bytes = 0;
+    }
+}
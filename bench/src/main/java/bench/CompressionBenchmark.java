@@ -0,0 +1,75 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  Measures compress() and expand() on whole inputs, for each corpus, engine and
+ *  code width. The bytes counter is the input rate: text in for compress, and
+ *  text out for expand.
+ *  <p>
+ *  Synthetic corpora default to 1 MB and 16 MB. Larger ones, up to 1 GB, can be
+ *  picked on the command line, for example {@code -p corpus=text:1G}; a single
+ *  operation then takes many seconds, so each iteration measures just one.
+ *
+ *  @author Landon Moceri
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class CompressionBenchmark {
+
+    @Param({"abra", "tricky", "alice",
+            "random:1M", "repetitive:1M", "text:1M",
+            "random:16M", "repetitive:16M", "text:16M"})
+    public String corpus;
+
+    @Param({"hash", "tst"})
+    public String engine;
+
+    @Param({"12", "16"})
+    public int bits;
+
+    private ByteBuffer text;
+    private ByteBuffer compressed;
+    private ToLongFunction<ByteBuffer> compress;
+    private ToLongFunction<ByteBuffer> expand;
+
+    @Setup
+    public void setup() throws IOException {
+        text = ByteBuffer.wrap(Corpus.load(corpus));
+        compressed = Workloads.get("compressed", text, engine, bits);
+        compress = Workloads.get("compress", engine, bits);
+        expand = Workloads.get("expand");
+    }
+
+    @Benchmark
+    public long compress(Bytes counter) {
+        counter.bytes += text.remaining();
+        return compress.applyAsLong(text);
+    }
+
+    @Benchmark
+    public long expand(Bytes counter) {
+        long length = expand.applyAsLong(compressed);
+        counter.bytes += length;
+        return length;
+    }
+}
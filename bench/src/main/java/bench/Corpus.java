@@ -0,0 +1,115 @@
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ *  The {@code Corpus} class loads the inputs the benchmarks run on. A corpus is
+ *  either the name of a sample text in src ("abra", "tricky" or "alice"), or a
+ *  synthetic kind and a size, such as "random:1M", "repetitive:16M" or "text:1G".
+ *  <ul>
+ *  <li>random: uniformly random bytes, which LZW cannot compress.</li>
+ *  <li>repetitive: one 1 KB run of text repeated, with a byte changed now and then.</li>
+ *  <li>text: words of alice.txt, each chosen from the words that follow the one
+ *      before it there, so word frequencies and pairs look like natural text.</li>
+ *  </ul>
+ *  Synthetic corpora are seeded, so every run sees the same bytes. The sample
+ *  texts are read from the directory named by the {@code corpus.dir} system
+ *  property, or src when it is not set.
+ *
+ *  @author Landon Moceri
+ */
+final class Corpus {
+    private static final long SEED = 0x4C5A57L;
+
+    private Corpus() { }
+
+    /**
+     * Returns the bytes of the named corpus.
+     * @param spec A sample text name, or a synthetic kind and size separated by a colon.
+     * @return the corpus
+     * @throws IllegalArgumentException if the corpus is unknown
+     */
+    static byte[] load(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon < 0) return sample(spec);
+        String kind = spec.substring(0, colon);
+        int size = parseSize(spec.substring(colon + 1));
+        if (kind.equals("random")) return random(size);
+        if (kind.equals("repetitive")) return repetitive(size);
+        if (kind.equals("text")) return text(size);
+        throw new IllegalArgumentException("Unknown corpus: " + spec);
+    }
+
+    // Parses a byte count with an optional K, M or G suffix
+    private static int parseSize(String size) {
+        long scale = 1;
+        char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        if (unit == 'K') scale = 1L << 10;
+        else if (unit == 'M') scale = 1L << 20;
+        else if (unit == 'G') scale = 1L << 30;
+        long bytes = (scale == 1 ? Long.parseLong(size) : scale * Long.parseLong(size.substring(0, size.length() - 1)));
+        if (bytes <= 0 || bytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Illegal corpus size: " + size);
+        }
+        return (int) bytes;
+    }
+
+    private static byte[] sample(String name) {
+        try {
+            return Files.readAllBytes(Paths.get(System.getProperty("corpus.dir", "src"), name + ".txt"));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Could not read corpus " + name
+                    + "; run from the project directory or set -Dcorpus.dir", e);
+        }
+    }
+
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(SEED).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] repetitive(int size) {
+        byte[] run = text(1 << 10);
+        byte[] bytes = new byte[size];
+        Random random = new Random(SEED);
+        for (int i = 0; i < size; i++) {
+            bytes[i] = run[i % run.length];
+            // Change about one byte in every 4 KB, so the input is not a single repeated phrase
+            if (random.nextInt(1 << 12) == 0) bytes[i] = (byte) ('a' + random.nextInt(26));
+        }
+        return bytes;
+    }
+
+    private static byte[] text(int size) {
+        // Map each word of alice.txt, along with the whitespace after it, to the words that follow it
+        String alice = new String(sample("alice"), StandardCharsets.ISO_8859_1);
+        String[] words = alice.split("(?<=\\s)(?=\\S)");
+        Map<String, List<String>> followers = new HashMap<>();
+        for (int i = 0; i + 1 < words.length; i++) {
+            followers.computeIfAbsent(words[i], w -> new ArrayList<>()).add(words[i + 1]);
+        }
+
+        byte[] bytes = new byte[size];
+        Random random = new Random(SEED);
+        String word = words[0];
+        for (int i = 0; i < size; ) {
+            for (int j = 0; j < word.length() && i < size; j++) {
+                bytes[i++] = (byte) word.charAt(j);
+            }
+            List<String> next = followers.get(word);
+            word = (next == null) ? words[random.nextInt(words.length)] : next.get(random.nextInt(next.size()));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  Measures the TST on the strings LZW would add to its dictionary for each
+ *  corpus: inserting all of them into an empty TST, looking all of them up, and
+ *  splitting the corpus into longest prefixes. Each operation covers the whole
+ *  set of strings, or the whole corpus.
+ *
+ *  @author Landon Moceri
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class TSTBenchmark {
+
+    @Param({"alice", "random:1M", "repetitive:1M", "text:1M"})
+    public String corpus;
+
+    // The size of the dictionary, as the widest code
+    @Param({"12", "16"})
+    public int bits;
+
+    private byte[] text;
+    private byte[][] keys;
+    private ToIntFunction<byte[][]> insert;
+    private ToIntFunction<byte[][]> lookup;
+    private ToIntFunction<byte[]> longestPrefix;
+
+    @Setup
+    public void setup() {
+        text = Corpus.load(corpus);
+        keys = Workloads.get("phrases", text, 1 << bits);
+        insert = Workloads.get("tstInsert");
+        lookup = Workloads.get("tstLookup", (Object) keys);
+        longestPrefix = Workloads.get("tstLongestPrefix", (Object) keys);
+    }
+
+    @Benchmark
+    public int insert() {
+        return insert.applyAsInt(keys);
+    }
+
+    @Benchmark
+    public int lookup() {
+        return lookup.applyAsInt(keys);
+    }
+
+    @Benchmark
+    public int getLongestPrefix(Bytes counter) {
+        counter.bytes += text.length;
+        return longestPrefix.applyAsInt(text);
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ *  The {@code Workloads} class looks up the workloads built by
+ *  {@code BenchWorkloads}, which lives in the default package with the rest of
+ *  the compressor and so can only be reached by reflection. The lookup happens
+ *  once, in each benchmark's setup; the workloads are then called directly.
+ *
+ *  @author Landon Moceri
+ */
+final class Workloads {
+
+    private Workloads() { }
+
+    /**
+     * Calls the named static method of {@code BenchWorkloads}.
+     * @param name The name of the method.
+     * @param args Its arguments.
+     * @return what it returns
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T get(String name, Object... args) {
+        try {
+            for (Method method : Class.forName("BenchWorkloads").getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                    return (T) method.invoke(null, args);
+                }
+            }
+        }
+        catch (InvocationTargetException e) {
+            throw new IllegalStateException("Could not build workload " + name, e.getCause());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not build workload " + name, e);
+        }
+        throw new IllegalArgumentException("Unknown workload: " + name);
+    }
+}
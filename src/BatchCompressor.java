@@ -0,0 +1,276 @@
+/******************************************************************************
+ *  Compilation:  javac BatchCompressor.java
+ *  Dependencies: TextCompressor.java BitInput.java BitOutput.java
+ *
+ *  Compresses or expands many files in one run, on a pool of threads, so that
+ *  the cost of starting the JVM and warming up the coder is paid only once.
+ *
+ *  % java TextCompressor - --batch compressed docs/ notes.txt @more.txt
+ *  batch compress: 304 files, 32202219 input bytes, 14445757 output bytes (44.86%) in 2198.8 ms
+ *    14.65 MB/s of text, 1 threads, 98.6% busy, 0 failed
+ *  % java TextCompressor + --batch expanded compressed/
+ *
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The {@code BatchCompressor} class runs one {@code TextCompressor} over many files at once. The
+ * inputs may be files, directories, which are walked for every file under them, or "@list" files
+ * naming one input per line. Each input is written to the output directory: a file under its own
+ * name, and a file found in a directory under its path within that directory. Compressing adds
+ * ".lzw" to the name, and expanding takes it off again, or adds ".out" if it is not there.
+ * <p>
+ * The files are handed to a work-stealing pool largest first, so that the longest jobs start
+ * right away and the small ones fill in the gaps at the end, instead of one large file starting
+ * last and keeping a single thread busy long after the rest are done. A file that cannot be coded
+ * is reported and skipped, and its partial output is deleted, without stopping the others.
+ *
+ * @author Landon Moceri
+ */
+public class BatchCompressor {
+
+    static final String SUFFIX = ".lzw";
+    static final String EXPANDED_SUFFIX = ".out";
+
+    private final TextCompressor compressor;
+    private final int threads;
+
+    // A file to code, and where to write it
+    private static class Job {
+        final Path input;
+        final Path output;
+        final long size;
+
+        Job(Path input, Path output) throws IOException {
+            this.input = input;
+            this.output = output;
+            this.size = Files.size(input);
+        }
+    }
+
+    /**
+     * Initializes a batch that codes files with the given compressor's settings.
+     * @param compressor The compressor to code every file with. Its contexts are shared by all the threads.
+     * @param threads The number of files coded at once.
+     */
+    public BatchCompressor(TextCompressor compressor, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Illegal number of threads = " + threads);
+        this.compressor = compressor;
+        this.threads = threads;
+    }
+
+    /**
+     * Compresses every input file into the output directory.
+     * @param inputs The files, directories and "@list" files to compress.
+     * @param outputDirectory Where to write the compressed files. It is created if need be.
+     * @return a report of how much was coded, how fast, and which files failed
+     * @throws IOException if the inputs cannot be listed
+     */
+    public Report compress(List<String> inputs, Path outputDirectory) throws IOException {
+        return run(true, inputs, outputDirectory);
+    }
+
+    /**
+     * Expands every input file into the output directory.
+     * @param inputs The files, directories and "@list" files to expand.
+     * @param outputDirectory Where to write the expanded files. It is created if need be.
+     * @return a report of how much was coded, how fast, and which files failed
+     * @throws IOException if the inputs cannot be listed
+     */
+    public Report expand(List<String> inputs, Path outputDirectory) throws IOException {
+        return run(false, inputs, outputDirectory);
+    }
+
+    private Report run(boolean compressing, List<String> inputs, Path outputDirectory) throws IOException {
+        List<Job> jobs = jobs(compressing, inputs, outputDirectory);
+        jobs.sort(Comparator.comparingLong((Job job) -> job.size).reversed());
+
+        Report report = new Report(compressing, threads);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // The pool takes tasks submitted from outside in the order they came, so the largest go first
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                tasks.add(pool.submit(() -> code(compressing, job, report)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    // Lists the files to code, failing before any are written if two of them would have the same output,
+    // or if an output would overwrite an input, which another job may still be reading
+    private static List<Job> jobs(boolean compressing, List<String> inputs, Path outputDirectory) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        Set<Path> outputs = new HashSet<>();
+        Set<Path> sources = new HashSet<>();
+        List<String> pending = new ArrayList<>(inputs);
+        for (int i = 0; i < pending.size(); i++) {
+            String name = pending.get(i);
+            if (name.startsWith("@")) {
+                // Read more inputs from a list, one per line
+                for (String line : Files.readAllLines(Paths.get(name.substring(1)))) {
+                    if (!line.isBlank()) pending.add(line.strip());
+                }
+                continue;
+            }
+            Path input = Paths.get(name);
+            List<Path[]> found = new ArrayList<>();
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> walk = Files.walk(input)) {
+                    for (Path file : walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                        found.add(new Path[] {file, input.relativize(file)});
+                    }
+                }
+            }
+            else if (Files.isRegularFile(input)) {
+                found.add(new Path[] {input, input.getFileName()});
+            }
+            else {
+                throw new IllegalArgumentException("No such file or directory: " + name);
+            }
+            for (Path[] file : found) {
+                Path output = outputDirectory.resolve(outputName(compressing, file[1].toString())).normalize();
+                if (!outputs.add(output.toAbsolutePath())) {
+                    throw new IllegalArgumentException("Two inputs would both be written to " + output);
+                }
+                sources.add(file[0].toAbsolutePath().normalize());
+                jobs.add(new Job(file[0], output));
+            }
+        }
+        for (Job job : jobs) {
+            if (sources.contains(job.output.toAbsolutePath())) {
+                throw new IllegalArgumentException("Output would overwrite an input: " + job.output);
+            }
+        }
+        return jobs;
+    }
+
+    // The name of the output for an input, adding or taking off the suffix
+    private static String outputName(boolean compressing, String name) {
+        if (compressing) return name + SUFFIX;
+        if (name.endsWith(SUFFIX) && name.length() > SUFFIX.length()) {
+            return name.substring(0, name.length() - SUFFIX.length());
+        }
+        return name + EXPANDED_SUFFIX;
+    }
+
+    // Codes one file, recording how it went in the report
+    private void code(boolean compressing, Job job, Report report) {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(job.output.toAbsolutePath().getParent());
+            try (FileChannel source = FileChannel.open(job.input, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(job.output, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                BitInput in = BitInput.map(source);
+                BitOutput out = new BitOutput(target);
+                if (compressing) compressor.compress(in, out);
+                else compressor.expand(in, out);
+                out.flush();
+                report.inputBytes.add(job.size);
+                report.outputBytes.add(target.size());
+                report.files.increment();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            report.failures.add(job.input + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(job.output);
+            }
+            catch (IOException ignored) {
+                // The failure is reported already, and a partial output left behind is named in it
+            }
+        }
+        report.busyNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * The {@code Report} class holds the totals of a batch. Its counters are added to by every thread
+     * in the pool as each file is done.
+     */
+    public static class Report {
+        private final boolean compressing;
+        private final int threads;
+        private final LongAdder files = new LongAdder();
+        private final LongAdder inputBytes = new LongAdder();
+        private final LongAdder outputBytes = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        private long elapsedNanos;
+
+        private Report(boolean compressing, int threads) {
+            this.compressing = compressing;
+            this.threads = threads;
+        }
+
+        /**
+         * Returns the number of files coded.
+         * @return the number of files, not counting those that failed
+         */
+        public long files() {
+            return files.sum();
+        }
+
+        /**
+         * Returns the files that could not be coded.
+         * @return a line for each, of the input file and what went wrong
+         */
+        public List<String> failures() {
+            return new ArrayList<>(failures);
+        }
+
+        /**
+         * Returns the rate at which text was compressed or expanded, over the whole batch.
+         * @return the number of uncompressed bytes coded per second
+         */
+        public double getBytesPerSecond() {
+            long text = (compressing ? inputBytes : outputBytes).sum();
+            return (elapsedNanos == 0) ? 0 : text * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns a summary of the batch, followed by a line for each file that failed.
+         * @return the summary
+         */
+        public String toString() {
+            long in = inputBytes.sum();
+            long out = outputBytes.sum();
+            double elapsed = elapsedNanos / 1e6;
+            StringBuilder s = new StringBuilder(String.format(
+                    "batch %s: %d files, %d input bytes, %d output bytes (%.2f%%) in %.1f ms%n"
+                            + "  %.2f MB/s of text, %d threads, %.1f%% busy, %d failed",
+                    compressing ? "compress" : "expand", files(), in, out, (in == 0) ? 0 : 100.0 * out / in, elapsed,
+                    getBytesPerSecond() / 1e6, threads,
+                    (elapsedNanos == 0) ? 0 : 100.0 * busyNanos.sum() / threads / elapsedNanos, failures.size()));
+            for (String failure : failures) {
+                s.append(String.format("%n  failed: %s", failure));
+            }
+            return s.toString();
+        }
+    }
+}
@@ -1,7 +1,7 @@
 /******************************************************************************
  *  Compilation:  javac BinaryStdOut.java
  *  Execution:    java BinaryStdOut
- *  Dependencies: none
+ *  Dependencies: BitOutput.java
  *
  *  Write binary data to standard output, either one 1-bit boolean,
  *  one 8-bit char, one 32-bit int, one 64-bit double, one 32-bit float,
@@ -10,8 +10,6 @@
  *  The bytes written are not aligned.
  *
  ******************************************************************************/
-import java.io.BufferedOutputStream;
-import java.io.IOException;
 
 /**
  *  The <code>BinaryStdOut</code> class provides static methods for converting
@@ -20,6 +18,10 @@ import java.io.IOException;
  *  to sequences of bits and writing them to standard output.
  *  Uses big-endian (most-significant byte first).
  *  <p>
+ *  Each method forwards to a single {@link BitOutput} over standard output,
+ *  which packs the bits into a 64-bit register and writes them in bulk.
+ *  Use {@code BitOutput} directly to write to anything else.
+ *  <p>
  *  The client must {@code flush()} the output stream when finished writing bits.
  *  <p>
  *  The client should not intermix calls to {@code BinaryStdOut} with calls
@@ -30,77 +32,15 @@ import java.io.IOException;
  *  @author Kevin Wayne
  */
 public final class BinaryStdOut {
-    private static BufferedOutputStream out;  // output stream (standard output)
-    private static int buffer;                // 8-bit buffer of bits to write
-    private static int n;                     // number of bits remaining in buffer
-    private static boolean isInitialized;     // has BinaryStdOut been called for first time?
+    private static BitOutput out;   // BitOutput over standard output, created the first time BinaryStdOut is called
 
     // don't instantiate
     private BinaryStdOut() { }
 
-    // initialize BinaryStdOut
-    private static void initialize() {
-        out = new BufferedOutputStream(System.out);
-        buffer = 0;
-        n = 0;
-        isInitialized = true;
-    }
-
-    /**
-     * Writes the specified bit to standard output.
-     */
-    private static void writeBit(boolean bit) {
-        if (!isInitialized) initialize();
-
-        // add bit to buffer
-        buffer <<= 1;
-        if (bit) buffer |= 1;
-
-        // if buffer is full (8 bits), write out as a single byte
-        n++;
-        if (n == 8) clearBuffer();
-    }
-
-    /**
-     * Writes the 8-bit byte to standard output.
-     */
-    private static void writeByte(int x) {
-        if (!isInitialized) initialize();
-
-        assert x >= 0 && x < 256;
-
-        // optimized if byte-aligned
-        if (n == 0) {
-            try {
-                out.write(x);
-            }
-            catch (IOException e) {
-                e.printStackTrace();
-            }
-            return;
-        }
-
-        // otherwise write one bit at a time
-        for (int i = 0; i < 8; i++) {
-            boolean bit = ((x >>> (8 - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
-    }
-
-    // write out any remaining bits in buffer to standard output, padding with 0s
-    private static void clearBuffer() {
-        if (!isInitialized) initialize();
-
-        if (n == 0) return;
-        if (n > 0) buffer <<= (8 - n);
-        try {
-            out.write(buffer);
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
-        n = 0;
-        buffer = 0;
+    // the BitOutput behind BinaryStdOut
+    private static BitOutput out() {
+        if (out == null) out = new BitOutput(System.out);
+        return out;
     }
 
     /**
@@ -108,13 +48,7 @@ public final class BinaryStdOut {
      * is not a multiple of 8.
      */
     public static void flush() {
-        clearBuffer();
-        try {
-            out.flush();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        out().flush();
     }
 
     /**
@@ -122,23 +56,16 @@ public final class BinaryStdOut {
      * longer write bits to it.
      */
     public static void close() {
-        flush();
-        try {
-            out.close();
-            isInitialized = false;
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        out().close();
+        out = null;
     }
 
-
     /**
      * Writes the specified bit to standard output.
      * @param x the {@code boolean} to write.
      */
     public static void write(boolean x) {
-        writeBit(x);
+        out().write(x);
     }
 
     /**
@@ -146,7 +73,7 @@ public final class BinaryStdOut {
      * @param x the {@code byte} to write.
      */
     public static void write(byte x) {
-        writeByte(x & 0xff);
+        out().write(x);
     }
 
     /**
@@ -154,10 +81,7 @@ public final class BinaryStdOut {
      * @param x the {@code int} to write.
      */
     public static void write(int x) {
-        writeByte((x >>> 24) & 0xff);
-        writeByte((x >>> 16) & 0xff);
-        writeByte((x >>>  8) & 0xff);
-        writeByte((x >>>  0) & 0xff);
+        out().write(x);
     }
 
     /**
@@ -168,16 +92,7 @@ public final class BinaryStdOut {
      * @throws IllegalArgumentException if {@code x} is not between 0 and 2<sup>r</sup> - 1.
      */
     public static void write(int x, int r) {
-        if (r == 32) {
-            write(x);
-            return;
-        }
-        if (r < 1 || r > 32)        throw new IllegalArgumentException("Illegal value for r = " + r);
-        if (x < 0 || x >= (1 << r)) throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
-        for (int i = 0; i < r; i++) {
-            boolean bit = ((x >>> (r - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        out().write(x, r);
     }
 
     /**
@@ -185,7 +100,7 @@ public final class BinaryStdOut {
      * @param x the {@code double} to write.
      */
     public static void write(double x) {
-        write(Double.doubleToRawLongBits(x));
+        out().write(x);
     }
 
     /**
@@ -193,14 +108,7 @@ public final class BinaryStdOut {
      * @param x the {@code long} to write.
      */
     public static void write(long x) {
-        writeByte((int) ((x >>> 56) & 0xff));
-        writeByte((int) ((x >>> 48) & 0xff));
-        writeByte((int) ((x >>> 40) & 0xff));
-        writeByte((int) ((x >>> 32) & 0xff));
-        writeByte((int) ((x >>> 24) & 0xff));
-        writeByte((int) ((x >>> 16) & 0xff));
-        writeByte((int) ((x >>>  8) & 0xff));
-        writeByte((int) ((x >>>  0) & 0xff));
+        out().write(x);
     }
 
     /**
@@ -208,7 +116,7 @@ public final class BinaryStdOut {
      * @param x the {@code float} to write.
      */
     public static void write(float x) {
-        write(Float.floatToRawIntBits(x));
+        out().write(x);
     }
 
     /**
@@ -216,8 +124,7 @@ public final class BinaryStdOut {
      * @param x the {@code short} to write.
      */
     public static void write(short x) {
-        writeByte((x >>>  8) & 0xff);
-        writeByte((x >>>  0) & 0xff);
+        out().write(x);
     }
 
     /**
@@ -226,8 +133,7 @@ public final class BinaryStdOut {
      * @throws IllegalArgumentException if {@code x} is not between 0 and 255.
      */
     public static void write(char x) {
-        if (x < 0 || x >= 256) throw new IllegalArgumentException("Illegal 8-bit char = " + x);
-        writeByte(x);
+        out().write(x);
     }
 
     /**
@@ -238,16 +144,7 @@ public final class BinaryStdOut {
      * @throws IllegalArgumentException if {@code x} is not between 0 and 2<sup>r</sup> - 1.
      */
     public static void write(char x, int r) {
-        if (r == 8) {
-            write(x);
-            return;
-        }
-        if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value for r = " + r);
-        if (x >= (1 << r))   throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
-        for (int i = 0; i < r; i++) {
-            boolean bit = ((x >>> (r - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        out().write(x, r);
     }
 
     /**
@@ -257,8 +154,7 @@ public final class BinaryStdOut {
      * between 0 and 255.
      */
     public static void write(String s) {
-        for (int i = 0; i < s.length(); i++)
-            write(s.charAt(i));
+        out().write(s);
     }
 
     /**
@@ -270,8 +166,7 @@ public final class BinaryStdOut {
      * between 0 and 2<sup>r</sup> - 1.
      */
     public static void write(String s, int r) {
-        for (int i = 0; i < s.length(); i++)
-            write(s.charAt(i), r);
+        out().write(s, r);
     }
 
     /**
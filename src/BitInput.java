@@ -0,0 +1,393 @@
+/******************************************************************************
+ *  Compilation:  javac BitInput.java
+ *  Dependencies: CompressionStats.java
+ *
+ *  Supports reading binary data from any input stream, channel, buffer
+ *  or memory-mapped file.
+ *
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.NoSuchElementException;
+
+/**
+ *  The {@code BitInput} class reads bits from an input stream, a channel,
+ *  a byte buffer or a memory-mapped file. It can process the bits
+ *  one bit at a time (as a {@code boolean}),
+ *  8 bits at a time (as a {@code byte} or {@code char}),
+ *  16 bits at a time (as a {@code short}), 32 bits at a time
+ *  (as an {@code int} or {@code float}), or 64 bits at a time (as a
+ *  {@code double} or {@code long}).
+ *  <p>
+ *  Input is read in bulk into a large byte buffer and loaded into a 64-bit
+ *  register up to 8 bytes at a time, so that reading an <em>r</em>-bit
+ *  value is a shift and a mask.
+ *  <p>
+ *  All primitive types are assumed to be represented using their
+ *  standard Java representations, in big-endian (most significant
+ *  byte first) order.
+ *  <p>
+ *  Each {@code BitInput} keeps its own state, so any number of them can be
+ *  used at once, but a single one must not be shared between threads.
+ *
+ *  @author Robert Sedgewick
+ *  @author Kevin Wayne
+ *  @author Landon Moceri
+ */
+public final class BitInput {
+    private static final int BUFFER_SIZE = 1 << 16;   // size of the byte buffer
+    private static final int MAP_SIZE = 1 << 30;      // largest region of a file mapped at once
+
+    private final InputStream in;            // input stream, or null
+    private final ReadableByteChannel channel; // input channel, or null
+    private final FileChannel file;          // mapped input file, or null
+    private long mapped;                     // number of bytes of the file mapped so far
+    private ByteBuffer bytes;                // bytes read from the input but not yet loaded
+    private long buffer;                     // 64-bit register of bits
+    private int n;                           // number of bits left in the register
+    private boolean isEOF;                   // has the input run out?
+    private CompressionStats stats;          // where to add time spent reading, or null
+
+    /**
+     * Reads bits from the given input stream.
+     * @param in the input stream
+     */
+    public BitInput(InputStream in) {
+        this(in, null, null, emptyBuffer(ByteBuffer.allocate(BUFFER_SIZE)));
+    }
+
+    /**
+     * Reads bits from the given channel.
+     * @param channel the input channel
+     */
+    public BitInput(ReadableByteChannel channel) {
+        this(null, channel, null, emptyBuffer(ByteBuffer.allocateDirect(BUFFER_SIZE)));
+    }
+
+    /**
+     * Reads bits from the remaining bytes of the given buffer, without copying them.
+     * @param bytes the input buffer
+     */
+    public BitInput(ByteBuffer bytes) {
+        this(null, null, null, bytes);
+    }
+
+    private BitInput(InputStream in, ReadableByteChannel channel, FileChannel file, ByteBuffer bytes) {
+        this.in = in;
+        this.channel = channel;
+        this.file = file;
+        this.bytes = bytes;
+        this.isEOF = (in == null && channel == null && file == null);
+    }
+
+    private static ByteBuffer emptyBuffer(ByteBuffer bytes) {
+        bytes.limit(0);
+        return bytes;
+    }
+
+    /**
+     * Reads bits from the given file by memory-mapping it. The bits are read
+     * directly out of the mapped buffer, without copying them to the heap.
+     *
+     * @param file the file to read, from its current position
+     * @return a {@code BitInput} over the mapped file
+     * @throws IOException if the file cannot be mapped
+     */
+    public static BitInput map(FileChannel file) throws IOException {
+        BitInput input = new BitInput(null, null, file, emptyBuffer(ByteBuffer.allocate(0)));
+        input.mapped = file.position();
+        return input;
+    }
+
+    /**
+     * Sets the stats to add the time spent reading the underlying input to.
+     * @param stats the stats, or null to stop timing reads
+     */
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+    }
+
+    // read more of the input into the byte buffer, returning false once the input has run out
+    private boolean fillBuffer() {
+        if (isEOF) return false;
+        long start = (stats != null) ? System.nanoTime() : 0;
+        try {
+            if (file != null) return mapRegion();
+            bytes.compact();
+            int count = (in != null)
+                    ? in.read(bytes.array(), bytes.position(), bytes.remaining())
+                    : channel.read(bytes);
+            if (count < 0) isEOF = true;
+            else if (in != null) bytes.position(bytes.position() + count);
+            bytes.flip();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not read from input", e);
+        }
+        finally {
+            if (stats != null) stats.addIo(System.nanoTime() - start);
+        }
+        return !isEOF;
+    }
+
+    // map the next region of the input file once the current one has been used up
+    private boolean mapRegion() throws IOException {
+        long length = Math.min(MAP_SIZE, file.size() - mapped);
+        if (length <= 0) {
+            isEOF = true;
+            return false;
+        }
+        bytes = file.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+        mapped += length;
+        return true;
+    }
+
+    // load whole bytes into the register until it holds at least r bits, or the input runs out
+    private void fillRegister(int r) {
+        do {
+            int k = (64 - n) >>> 3;
+            if (bytes.remaining() >= 8) {
+                // load k bytes at once from a single big-endian word
+                long word = bytes.getLong(bytes.position());
+                buffer = (k == 8) ? word : (buffer << (8 * k)) | (word >>> (64 - 8 * k));
+                bytes.position(bytes.position() + k);
+                n += 8 * k;
+            }
+            else {
+                for (; k > 0 && bytes.hasRemaining(); k--) {
+                    buffer = (buffer << 8) | (bytes.get() & 0xff);
+                    n += 8;
+                }
+            }
+            // only go back to the input once the buffer has nothing left to give
+        } while (n < r && fillBuffer());
+    }
+
+    // read the next r bits, for 1 <= r <= 32
+    private long readBits(int r) {
+        if (n < r) {
+            fillRegister(r);
+            if (n < r) throw new NoSuchElementException("Reading from empty input stream");
+        }
+        n -= r;
+        return (buffer >>> n) & ((1L << r) - 1);
+    }
+
+    /**
+     * Close this input and release any associated system resources.
+     */
+    public void close() {
+        try {
+            if (in != null) in.close();
+            if (channel != null) channel.close();
+            if (file != null) file.close();
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not close BitInput", ioe);
+        }
+    }
+
+    /**
+     * Returns true if the input is empty.
+     * @return true if and only if the input is empty
+     */
+    public boolean isEmpty() {
+        if (n > 0 || bytes.hasRemaining()) return false;
+        while (!bytes.hasRemaining()) {
+            if (!fillBuffer()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips the bits left over in the current byte, so that the next read starts on a byte boundary.
+     * Does nothing if the input is already byte-aligned.
+     */
+    public void align() {
+        n -= n % 8;
+    }
+
+    /**
+     * Reads the next bit of data from the input and return as a boolean.
+     *
+     * @return the next bit of data from the input as a {@code boolean}
+     * @throws NoSuchElementException if the input is empty
+     */
+    public boolean readBoolean() {
+        return readBits(1) == 1;
+    }
+
+    /**
+     * Reads the next 8 bits from the input and return as an 8-bit char.
+     *
+     * @return the next 8 bits of data from the input as a {@code char}
+     * @throws NoSuchElementException if there are fewer than 8 bits available
+     */
+    public char readChar() {
+        return (char) readBits(8);
+    }
+
+    /**
+     * Reads the next <em>r</em> bits from the input and return as an <em>r</em>-bit character.
+     *
+     * @param  r number of bits to read.
+     * @return the next r bits of data from the input as a {@code char}
+     * @throws NoSuchElementException if there are fewer than {@code r} bits available
+     * @throws IllegalArgumentException unless {@code 1 <= r <= 16}
+     */
+    public char readChar(int r) {
+        if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value of r = " + r);
+        return (char) readBits(r);
+    }
+
+    /**
+     * Reads the remaining bytes of data from the input and return as a string.
+     *
+     * @return the remaining bytes of data from the input as a {@code String}
+     * @throws NoSuchElementException if the input is empty or if the number of bits
+     *         available is not a multiple of 8 (byte-aligned)
+     */
+    public String readString() {
+        if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
+
+        StringBuilder sb = new StringBuilder();
+        while (!isEmpty()) {
+            sb.append((char) readBits(8));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads up to len bytes into b, in bulk. The input must be byte-aligned.
+     *
+     * @param b the array to read into
+     * @param off where in b to put the first byte
+     * @param len the number of bytes to read
+     * @return the number of bytes read, which is less than len only if the input ran out
+     * @throws IllegalStateException if the input is not byte-aligned
+     */
+    public int readBytes(byte[] b, int off, int len) {
+        if (n % 8 != 0) throw new IllegalStateException("Input is not byte-aligned");
+        int count = 0;
+        // first take the whole bytes already loaded into the register
+        for (; n > 0 && count < len; count++) {
+            n -= 8;
+            b[off + count] = (byte) (buffer >>> n);
+        }
+        // then copy straight out of the byte buffer
+        while (count < len) {
+            if (!bytes.hasRemaining() && !fillBuffer()) break;
+            int k = Math.min(len - count, bytes.remaining());
+            bytes.get(b, off + count, k);
+            count += k;
+        }
+        return count;
+    }
+
+    /**
+     * Reads the next 16 bits from the input and return as a 16-bit short.
+     *
+     * @return the next 16 bits of data from the input as a {@code short}
+     * @throws NoSuchElementException if there are fewer than 16 bits available
+     */
+    public short readShort() {
+        return (short) readBits(16);
+    }
+
+    /**
+     * Reads the next 32 bits from the input and return as a 32-bit int.
+     *
+     * @return the next 32 bits of data from the input as a {@code int}
+     * @throws NoSuchElementException if there are fewer than 32 bits available
+     */
+    public int readInt() {
+        return (int) readBits(32);
+    }
+
+    /**
+     * Reads the next <em>r</em> bits from the input and return as an <em>r</em>-bit int.
+     *
+     * @param  r number of bits to read.
+     * @return the next r bits of data from the input as a {@code int}
+     * @throws NoSuchElementException if there are fewer than {@code r} bits available
+     * @throws IllegalArgumentException unless {@code 1 <= r <= 32}
+     */
+    public int readInt(int r) {
+        if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
+        return (int) readBits(r);
+    }
+
+    /**
+     * Returns the next <em>r</em> bits from the input as an <em>r</em>-bit int, without
+     * consuming them. Bits past the end of the input are read as 0s, so that a table-driven
+     * decoder can always look ahead as far as its longest code.
+     *
+     * @param  r number of bits to look at.
+     * @return the next r bits of data from the input as a {@code int}
+     * @throws IllegalArgumentException unless {@code 1 <= r <= 32}
+     */
+    public int peekInt(int r) {
+        if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
+        if (n < r) {
+            fillRegister(r);
+            if (n < r) return (int) ((buffer << (r - n)) & ((1L << r) - 1));
+        }
+        return (int) ((buffer >>> (n - r)) & ((1L << r) - 1));
+    }
+
+    /**
+     * Skips the next <em>r</em> bits, which must have been looked at with peekInt().
+     *
+     * @param  r number of bits to skip.
+     * @throws NoSuchElementException if there are fewer than {@code r} bits available
+     */
+    public void skip(int r) {
+        if (n < r) throw new NoSuchElementException("Reading from empty input stream");
+        n -= r;
+    }
+
+    /**
+     * Reads the next 64 bits from the input and return as a 64-bit long.
+     *
+     * @return the next 64 bits of data from the input as a {@code long}
+     * @throws NoSuchElementException if there are fewer than 64 bits available
+     */
+    public long readLong() {
+        long high = readBits(32);
+        return (high << 32) | readBits(32);
+    }
+
+    /**
+     * Reads the next 64 bits from the input and return as a 64-bit double.
+     *
+     * @return the next 64 bits of data from the input as a {@code double}
+     * @throws NoSuchElementException if there are fewer than 64 bits available
+     */
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads the next 32 bits from the input and return as a 32-bit float.
+     *
+     * @return the next 32 bits of data from the input as a {@code float}
+     * @throws NoSuchElementException if there are fewer than 32 bits available
+     */
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    /**
+     * Reads the next 8 bits from the input and return as an 8-bit byte.
+     *
+     * @return the next 8 bits of data from the input as a {@code byte}
+     * @throws NoSuchElementException if there are fewer than 8 bits available
+     */
+    public byte readByte() {
+        return (byte) readBits(8);
+    }
+}
@@ -0,0 +1,325 @@
+/******************************************************************************
+ *  Compilation:  javac BitOutput.java
+ *  Dependencies: CompressionStats.java
+ *
+ *  Write binary data to any output stream, channel or buffer, either one
+ *  1-bit boolean, one 8-bit char, one 32-bit int, one 64-bit double,
+ *  one 32-bit float, or one 64-bit long at a time.
+ *
+ *  The bytes written are not aligned.
+ *
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ *  The {@code BitOutput} class converts primitive type variables
+ *  ({@code boolean}, {@code byte}, {@code char}, {@code int}, {@code long},
+ *  {@code float}, and {@code double}) to sequences of bits and writes them
+ *  to an output stream, a channel, or a byte buffer.
+ *  Uses big-endian (most-significant byte first).
+ *  <p>
+ *  Bits are packed into a 64-bit register and moved into a large byte buffer
+ *  a whole word at a time, which is written to the output in bulk.
+ *  <p>
+ *  The client must {@code flush()} the output when finished writing bits.
+ *  <p>
+ *  Each {@code BitOutput} keeps its own state, so any number of them can be
+ *  used at once, but a single one must not be shared between threads.
+ *
+ *  @author Robert Sedgewick
+ *  @author Kevin Wayne
+ *  @author Landon Moceri
+ */
+public final class BitOutput {
+    private static final int BUFFER_SIZE = 1 << 16;          // size of the byte buffer
+    private static final int DIRECT_BUFFER_SIZE = 1 << 20;   // size of the direct buffer for channels
+
+    private final OutputStream stream;       // output stream, or null
+    private final WritableByteChannel out;   // output channel, or null when writing into a buffer
+    private final ByteBuffer bytes;          // whole bytes waiting to be written
+    private long buffer;                     // 64-bit register of bits to write
+    private int n;                           // number of bits in the register
+    private CompressionStats stats;          // where to add time spent writing, or null
+
+    /**
+     * Writes bits to the given output stream.
+     * @param stream the output stream
+     */
+    public BitOutput(OutputStream stream) {
+        this.stream = stream;
+        this.out = Channels.newChannel(stream);
+        this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Writes bits to the given channel. Bytes are gathered in a direct buffer,
+     * so the channel can write them without another copy.
+     * @param channel the output channel
+     */
+    public BitOutput(WritableByteChannel channel) {
+        this.stream = null;
+        this.out = channel;
+        this.bytes = ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+    }
+
+    /**
+     * Writes bits into the given buffer, from its current position.
+     * @param target the output buffer
+     * @throws BufferOverflowException when writing more bytes than the buffer has room for
+     */
+    public BitOutput(ByteBuffer target) {
+        this.stream = null;
+        this.out = null;
+        this.bytes = target;
+    }
+
+    /**
+     * Writes the low r bits of x, most significant first.
+     */
+    private void writeBits(long x, int r) {
+        // make room in the register by moving its whole bytes out
+        if (n + r > 64) {
+            drain();
+        }
+        buffer = (buffer << r) | x;
+        n += r;
+    }
+
+    // move every whole byte in the register to the byte buffer, a word at a time when possible
+    private void drain() {
+        if (bytes.remaining() < 8) writeBytes();
+        if (n >= 32 && bytes.remaining() >= 4) {
+            n -= 32;
+            bytes.putInt((int) (buffer >>> n));
+        }
+        while (n >= 8) {
+            n -= 8;
+            bytes.put((byte) (buffer >>> n));
+        }
+    }
+
+    /**
+     * Sets the stats to add the time spent writing the underlying output to.
+     * @param stats the stats, or null to stop timing writes
+     */
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+    }
+
+    // write the byte buffer to the output channel in bulk
+    private void writeBytes() {
+        // a target buffer keeps everything written to it
+        if (out == null) return;
+        long start = (stats != null) ? System.nanoTime() : 0;
+        bytes.flip();
+        try {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not write to output", e);
+        }
+        bytes.clear();
+        if (stats != null) stats.addIo(System.nanoTime() - start);
+    }
+
+    // write out any remaining bits in buffer, padding with 0s
+    private void clearBuffer() {
+        drain();
+        if (n > 0) {
+            if (!bytes.hasRemaining()) writeBytes();
+            bytes.put((byte) (buffer << (8 - n)));
+            n = 0;
+        }
+        buffer = 0;
+        writeBytes();
+    }
+
+    /**
+     * Flushes the output, padding 0s if number of bits written so far
+     * is not a multiple of 8.
+     */
+    public void flush() {
+        clearBuffer();
+        try {
+            if (stream != null) stream.flush();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not flush output", e);
+        }
+    }
+
+    /**
+     * Flushes and closes the output. Once the output is closed, you can no
+     * longer write bits to it.
+     */
+    public void close() {
+        flush();
+        try {
+            if (out != null) out.close();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not close output", e);
+        }
+    }
+
+    /**
+     * Writes the specified bit.
+     * @param x the {@code boolean} to write.
+     */
+    public void write(boolean x) {
+        writeBits(x ? 1 : 0, 1);
+    }
+
+    /**
+     * Writes the 8-bit byte.
+     * @param x the {@code byte} to write.
+     */
+    public void write(byte x) {
+        writeBits(x & 0xff, 8);
+    }
+
+    /**
+     * Writes the 32-bit int.
+     * @param x the {@code int} to write.
+     */
+    public void write(int x) {
+        writeBits(x & 0xffffffffL, 32);
+    }
+
+    /**
+     * Writes the <em>r</em>-bit int.
+     * @param x the {@code int} to write.
+     * @param r the number of relevant bits in the char.
+     * @throws IllegalArgumentException if {@code r} is not between 1 and 32.
+     * @throws IllegalArgumentException if {@code x} is not between 0 and 2<sup>r</sup> - 1.
+     */
+    public void write(int x, int r) {
+        if (r == 32) {
+            write(x);
+            return;
+        }
+        if (r < 1 || r > 32)         throw new IllegalArgumentException("Illegal value for r = " + r);
+        if (x < 0 || x >= (1L << r)) throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
+        writeBits(x, r);
+    }
+
+    /**
+     * Writes the 64-bit double.
+     * @param x the {@code double} to write.
+     */
+    public void write(double x) {
+        write(Double.doubleToRawLongBits(x));
+    }
+
+    /**
+     * Writes the 64-bit long.
+     * @param x the {@code long} to write.
+     */
+    public void write(long x) {
+        writeBits(x >>> 32, 32);
+        writeBits(x & 0xffffffffL, 32);
+    }
+
+    /**
+     * Writes the 32-bit float.
+     * @param x the {@code float} to write.
+     */
+    public void write(float x) {
+        write(Float.floatToRawIntBits(x));
+    }
+
+    /**
+     * Writes the 16-bit int.
+     * @param x the {@code short} to write.
+     */
+    public void write(short x) {
+        writeBits(x & 0xffff, 16);
+    }
+
+    /**
+     * Writes the 8-bit char.
+     * @param x the {@code char} to write.
+     * @throws IllegalArgumentException if {@code x} is not between 0 and 255.
+     */
+    public void write(char x) {
+        if (x >= 256) throw new IllegalArgumentException("Illegal 8-bit char = " + x);
+        writeBits(x, 8);
+    }
+
+    /**
+     * Writes the <em>r</em>-bit char.
+     * @param x the {@code char} to write.
+     * @param r the number of relevant bits in the char.
+     * @throws IllegalArgumentException if {@code r} is not between 1 and 16.
+     * @throws IllegalArgumentException if {@code x} is not between 0 and 2<sup>r</sup> - 1.
+     */
+    public void write(char x, int r) {
+        if (r == 8) {
+            write(x);
+            return;
+        }
+        if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value for r = " + r);
+        if (x >= (1 << r))   throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
+        writeBits(x, r);
+    }
+
+    /**
+     * Writes len bytes of b, in bulk when the output is byte-aligned.
+     * @param b the array of bytes to write
+     * @param off where in b the bytes start
+     * @param len the number of bytes to write
+     */
+    public void write(byte[] b, int off, int len) {
+        if (n % 8 != 0) {
+            for (int i = off; i < off + len; i++) {
+                writeBits(b[i] & 0xff, 8);
+            }
+            return;
+        }
+        // empty the register, then copy straight into the byte buffer
+        drain();
+        if (out == null) {
+            bytes.put(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            if (!bytes.hasRemaining()) writeBytes();
+            int k = Math.min(len, bytes.remaining());
+            bytes.put(b, off, k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    /**
+     * Writes the string of 8-bit characters.
+     * @param s the {@code String} to write.
+     * @throws IllegalArgumentException if any character in the string is not
+     * between 0 and 255.
+     */
+    public void write(String s) {
+        for (int i = 0; i < s.length(); i++)
+            write(s.charAt(i));
+    }
+
+    /**
+     * Writes the string of <em>r</em>-bit characters.
+     * @param s the {@code String} to write.
+     * @param r the number of relevant bits in each character.
+     * @throws IllegalArgumentException if r is not between 1 and 16.
+     * @throws IllegalArgumentException if any character in the string is not
+     * between 0 and 2<sup>r</sup> - 1.
+     */
+    public void write(String s, int r) {
+        for (int i = 0; i < s.length(); i++)
+            write(s.charAt(i), r);
+    }
+}
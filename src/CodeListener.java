@@ -0,0 +1,41 @@
+/**
+ * The {@code CodeListener} interface follows a stream of codes as expand()'s decoder reads it, so that
+ * a tool such as {@code StreamInspector} sees every code the way expand() does without a second copy
+ * of its rules for code widths, CLEAR, EOF and checks. Each call comes right after the bits it tells
+ * of have been read, so the reader's bits() says how many they took.
+ *
+ * @author Landon Moceri
+ */
+interface CodeListener {
+
+    /**
+     * Called before the first code of a stream.
+     * @param reader The reader the stream's codes come through.
+     */
+    void start(CodeReader reader);
+
+    /**
+     * Called after each code that stands for text.
+     * @param code The code.
+     * @param length The length of its string.
+     * @param tableSize The next code to be added to the table, now that this one's entry is in it.
+     */
+    void text(int code, int length, int tableSize);
+
+    /**
+     * Called after a CLEAR, before the table starts over.
+     * @param tableSize The next code that would have been added to the table.
+     */
+    void clear(int tableSize);
+
+    /**
+     * Called after the EOF that ends the codes, before any trailer.
+     * @param tableSize The next code that would have been added to the table.
+     */
+    void eof(int tableSize);
+
+    /**
+     * Called after a checksum written between codes has been read and verified.
+     */
+    void check();
+}
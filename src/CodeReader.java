@@ -0,0 +1,54 @@
+/**
+ * The {@code CodeReader} interface is the front end of expand(), reading back the codes written by
+ * a {@code CodeWriter}. The expander passes the same bound the compressor did, the next code the
+ * compressor was going to add to its table, which it knows from its own table.
+ *
+ * @author Landon Moceri
+ */
+public interface CodeReader {
+
+    /**
+     * Reads one code.
+     * @param next The next code the compressor was going to add to its table when it wrote this one.
+     * @return the code
+     */
+    int read(int next);
+
+    /**
+     * Reads a 32-bit word written between codes by {@link CodeWriter#writeWord}.
+     * @return the word
+     */
+    int readWord();
+
+    /**
+     * Returns the number of bits read so far.
+     * @return the number of bits
+     */
+    long bits();
+
+    /**
+     * Returns a reader for codes written by {@link CodeWriter#fixedWidth}.
+     * @param in Where to read the codes from.
+     * @return the reader
+     */
+    static CodeReader fixedWidth(BitInput in) {
+        return new CodeReader() {
+            long bits;
+
+            public int read(int next) {
+                int size = TextCompressor.codeSize(next);
+                bits += size;
+                return in.readInt(size);
+            }
+
+            public int readWord() {
+                bits += 32;
+                return in.readInt();
+            }
+
+            public long bits() {
+                return bits;
+            }
+        };
+    }
+}
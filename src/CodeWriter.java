@@ -0,0 +1,63 @@
+/**
+ * The {@code CodeWriter} interface is the back end of compress(). The compressor hands it each LZW
+ * code along with the next code it will add to its table, which bounds every code it can write, and
+ * the writer turns the codes into bits: either as they are, just wide enough for any code below
+ * the bound, or through an entropy coder.
+ *
+ * @author Landon Moceri
+ */
+public interface CodeWriter {
+
+    /**
+     * Writes one code.
+     * @param code The code, which is below next.
+     * @param next The next code the compressor will add to its table.
+     */
+    void write(int code, int next);
+
+    /**
+     * Writes a 32-bit word, such as a checksum, after the codes written so far and before any after it.
+     * @param word The word.
+     */
+    void writeWord(int word);
+
+    /**
+     * Writes out any codes still held back. Called once, after EOF.
+     */
+    void finish();
+
+    /**
+     * Returns the number of bits written so far.
+     * @return the number of bits
+     */
+    long bits();
+
+    /**
+     * Returns a writer that writes each code as it is, in as many bits as the largest code below
+     * next needs.
+     * @param out Where to write the codes.
+     * @return the writer
+     */
+    static CodeWriter fixedWidth(BitOutput out) {
+        return new CodeWriter() {
+            long bits;
+
+            public void write(int code, int next) {
+                int size = TextCompressor.codeSize(next);
+                out.write(code, size);
+                bits += size;
+            }
+
+            public void writeWord(int word) {
+                out.write(word);
+                bits += 32;
+            }
+
+            public void finish() { }
+
+            public long bits() {
+                return bits;
+            }
+        };
+    }
+}
@@ -0,0 +1,70 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The {@code CompressionEvent} class is the Flight Recorder event for one stream of codes, either a
+ * whole input or a single block, compressed or expanded. Its duration is the time spent coding it.
+ * Loading the first event class starts up much of Flight Recorder, which takes a few hundred
+ * milliseconds, so callers only create events once Flight Recorder is running:
+ *
+ *  % java -XX:StartFlightRecording=filename=run.jfr TextCompressor - input.txt output
+ *  % jfr print --events TextCompressor.Compression run.jfr
+ *
+ * @author Landon Moceri
+ */
+@Name("TextCompressor.Compression")
+@Label("LZW Stream")
+@Category("TextCompressor")
+@Description("A stream of LZW codes compressed or expanded")
+class CompressionEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Text Bytes")
+    @DataAmount
+    long textBytes;
+
+    @Label("Code Bytes")
+    @DataAmount
+    long codeBytes;
+
+    @Label("Codes")
+    long codes;
+
+    @Label("Clears")
+    long clears;
+
+    @Label("Table Size")
+    long tableSize;
+
+    /**
+     * Starts timing a stream. Check FlightRecorder.isInitialized() before calling this, so that
+     * the event class is never loaded in a run without Flight Recorder.
+     * @return the started event
+     */
+    static CompressionEvent start() {
+        CompressionEvent event = new CompressionEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and records it with the stream's counts, if a recording has it enabled.
+     */
+    void finish(String operation, long textBytes, long codeBytes, long codes, long clears, long tableSize) {
+        end();
+        if (!shouldCommit()) return;
+        this.operation = operation;
+        this.textBytes = textBytes;
+        this.codeBytes = codeBytes;
+        this.codes = codes;
+        this.clears = clears;
+        this.tableSize = tableSize;
+        commit();
+    }
+}
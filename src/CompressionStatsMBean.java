@@ -0,0 +1,68 @@
+/**
+ * The {@code CompressionStatsMBean} interface is the JMX view of a {@code CompressionStats},
+ * so that its counters can be read from a running process with JConsole or any other JMX client.
+ *
+ * @author Landon Moceri
+ */
+public interface CompressionStatsMBean {
+
+    /**
+     * @return the number of streams and blocks compressed
+     */
+    long getCompressedStreams();
+
+    /**
+     * @return the number of streams and blocks expanded
+     */
+    long getExpandedStreams();
+
+    /**
+     * @return the number of uncompressed bytes read by compress() or written by expand()
+     */
+    long getTextBytes();
+
+    /**
+     * @return the number of compressed bytes written by compress() or read by expand()
+     */
+    long getCodeBytes();
+
+    /**
+     * @return the number of codes written or read, not counting EOF and CLEAR
+     */
+    long getCodes();
+
+    /**
+     * @return the number of times a full table was cleared
+     */
+    long getClears();
+
+    /**
+     * @return the average number of bytes covered by each code
+     */
+    double getAverageMatchLength();
+
+    /**
+     * @return the most codes any one table held, including the single characters
+     */
+    long getLargestTable();
+
+    /**
+     * @return the total time spent in compress() and expand(), in nanoseconds
+     */
+    long getElapsedNanos();
+
+    /**
+     * @return the time spent waiting on the underlying input and output, in nanoseconds
+     */
+    long getIoNanos();
+
+    /**
+     * @return the uncompressed bytes handled per second of elapsed time
+     */
+    double getBytesPerSecond();
+
+    /**
+     * Sets every counter back to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,135 @@
+/******************************************************************************
+ *  Compilation:  javac Compressor.java
+ *  Dependencies: LZWDictionary.java HashDictionary.java TST.java SharedDictionary.java
+ *                HuffmanCodes.java CodeWriter.java BitOutput.java TextCompressor.java
+ *
+ *  The state one call to compress() works in, kept between calls so that
+ *  compressing many small inputs allocates nothing per input.
+ *
+ ******************************************************************************/
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * The {@code Compressor} class holds everything a stream of codes needs while it is compressed:
+ * the dictionary, the input buffer, the checksum and the Huffman stage. A {@code TextCompressor}
+ * keeps a small pool of them, each used by one stream at a time, and hands a stream one that
+ * matches its settings. The dictionary is set up once; after that, starting a stream over only
+ * clears it, which for the hash engine takes constant time since the single bytes and the shared
+ * dictionary are kept across clears.
+ *
+ * @author Landon Moceri
+ */
+final class Compressor {
+
+    // The settings the dictionary was built for
+    final String engine;
+    final int maxCodeSize;
+    final SharedDictionary shared;
+
+    final LZWDictionary dictionary;
+    // Whether the dictionary keeps its starting strings across clears, so that initialize() need not add them back
+    private boolean kept;
+    final byte[] buffer = new byte[TextCompressor.INPUT_BUFFER_SIZE];
+    final CRC32C crc = new CRC32C();
+    private HuffmanCodes.Writer huffman;
+    // Where compress(byte[]) writes its output, made on first use
+    private ByteArrayOutputStream bytes;
+    private BitOutput output;
+    // The counts of the last stream encoded, which its caller adds to the stats once it knows the codes are kept
+    long textBytes;
+    long codeBits;
+    long codes;
+    long clears;
+    int tableSize;
+
+    /**
+     * Creates a context for streams with the given settings.
+     * @param engine The dictionary engine, "hash" or "tst".
+     * @param maxCodeSize The widest code.
+     * @param shared The trained dictionary every stream starts from, or null.
+     */
+    Compressor(String engine, int maxCodeSize, SharedDictionary shared) {
+        this.engine = engine;
+        this.maxCodeSize = maxCodeSize;
+        this.shared = shared;
+        if (engine.equals("tst")) dictionary = new TST();
+        else if (engine.equals("hash")) dictionary = new HashDictionary(1 << maxCodeSize);
+        else throw new IllegalArgumentException("Unknown dictionary engine: " + engine);
+    }
+
+    /**
+     * Returns whether this context was made for the given settings.
+     * @param engine The dictionary engine.
+     * @param maxCodeSize The widest code.
+     * @param shared The trained dictionary, or null.
+     * @return true if a stream with these settings can use it
+     */
+    boolean matches(String engine, int maxCodeSize, SharedDictionary shared) {
+        return this.engine.equals(engine) && this.maxCodeSize == maxCodeSize && this.shared == shared;
+    }
+
+    /**
+     * Empties the dictionary down to the ASCII characters, along with any shared dictionary.
+     */
+    void initialize() {
+        dictionary.clear();
+        if (kept) return;
+        for (int i = 0; i < TextCompressor.NUM_ASCII_CHARS; i++) {
+            dictionary.extend((byte) i, i);
+        }
+        if (shared != null) shared.preload(dictionary);
+        kept = dictionary.keep();
+    }
+
+    /**
+     * Keeps the counts of the stream just encoded, for the stats.
+     * @param textBytes The number of bytes of text coded.
+     * @param codeBits The number of bits of codes written.
+     * @param codes The number of codes written.
+     * @param clears The number of times the table was cleared.
+     * @param tableSize The largest the table grew.
+     */
+    void count(long textBytes, long codeBits, long codes, long clears, int tableSize) {
+        this.textBytes = textBytes;
+        this.codeBits = codeBits;
+        this.codes = codes;
+        this.clears = clears;
+        this.tableSize = tableSize;
+    }
+
+    /**
+     * Returns a writer for a new stream of codes.
+     * @param out Where to write the codes.
+     * @param huffmanCoded Whether to Huffman code them.
+     * @return the writer
+     */
+    CodeWriter writer(BitOutput out, boolean huffmanCoded) {
+        if (!huffmanCoded) return CodeWriter.fixedWidth(out);
+        if (huffman == null) huffman = new HuffmanCodes.Writer(out);
+        else huffman.setOutput(out);
+        return huffman;
+    }
+
+    /**
+     * Returns an empty output that collects what is written to it, for compressing into an array.
+     * @return the output, whose bytes are taken with bytes() once it is flushed
+     */
+    BitOutput output() {
+        if (output == null) {
+            bytes = new ByteArrayOutputStream();
+            output = new BitOutput(bytes);
+        }
+        bytes.reset();
+        return output;
+    }
+
+    /**
+     * Returns a copy of the bytes written to output() since it was last handed out.
+     * @return the bytes
+     */
+    byte[] bytes() {
+        return bytes.toByteArray();
+    }
+}
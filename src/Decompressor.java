@@ -0,0 +1,109 @@
+/******************************************************************************
+ *  Compilation:  javac Decompressor.java
+ *  Dependencies: SharedDictionary.java HuffmanCodes.java CodeReader.java BitInput.java
+ *                BitOutput.java TextCompressor.java
+ *
+ *  The state one call to expand() works in, kept between calls so that
+ *  expanding many small inputs allocates nothing per input.
+ *
+ ******************************************************************************/
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * The {@code Decompressor} class holds everything a stream of codes needs while it is expanded:
+ * the map from codes to strings, the chunk of text waiting to be written, the checksum and the
+ * Huffman stage. A {@code TextCompressor} keeps a small pool of them, each used by one stream at a
+ * time. The map only ever grows, so one context serves streams of any code width, and expand()
+ * only writes to it from the first code after the single characters and the shared dictionary.
+ * So those entries are filled in once, and a stream that starts from the same shared dictionary as
+ * the one before it starts in constant time.
+ *
+ * @author Landon Moceri
+ */
+final class Decompressor {
+
+    // Every code's string is the string of its prefix code plus one last byte, along with its first byte and length
+    int[] prefix = new int[0];
+    byte[] last = new byte[0];
+    byte[] first = new byte[0];
+    int[] length = new int[0];
+    // Whether the entries before the first free code are filled in, and from which shared dictionary
+    private boolean loaded;
+    private SharedDictionary loadedShared;
+    // Text waiting to be checksummed and written out, which only grows past CHUNK_SIZE for a longer string
+    byte[] chunk = new byte[TextCompressor.CHUNK_SIZE];
+    final CRC32C crc = new CRC32C();
+    private HuffmanCodes.Reader huffman;
+    // Where expand(byte[]) writes its output, made on first use
+    private ByteArrayOutputStream bytes;
+    private BitOutput output;
+
+    /**
+     * Makes room for every code of the given width, and fills in the ASCII characters and the
+     * shared dictionary unless they are already there.
+     * @param codeSize The widest code of the stream.
+     * @param shared The trained dictionary the stream starts from, or null.
+     */
+    void load(int codeSize, SharedDictionary shared) {
+        int maxCode = 1 << codeSize;
+        if (prefix.length < maxCode) {
+            prefix = new int[maxCode];
+            last = new byte[maxCode];
+            first = new byte[maxCode];
+            length = new int[maxCode];
+            loaded = false;
+        }
+        if (loaded && loadedShared == shared) return;
+        for (int i = 0; i < TextCompressor.NUM_ASCII_CHARS; i++) {
+            last[i] = (byte) i;
+            first[i] = (byte) i;
+            length[i] = 1;
+        }
+        // The shared dictionary's prefixes always come before the strings that extend them
+        int base = TextCompressor.FIRST_CODE + (shared == null ? 0 : shared.size());
+        for (int i = TextCompressor.FIRST_CODE; i < base; i++) {
+            prefix[i] = shared.prefix(i);
+            last[i] = shared.last(i);
+            first[i] = first[prefix[i]];
+            length[i] = length[prefix[i]] + 1;
+        }
+        loaded = true;
+        loadedShared = shared;
+    }
+
+    /**
+     * Returns a reader for a new stream of codes.
+     * @param in Where to read the codes from.
+     * @param huffmanCoded Whether they are Huffman coded.
+     * @return the reader
+     */
+    CodeReader reader(BitInput in, boolean huffmanCoded) {
+        if (!huffmanCoded) return CodeReader.fixedWidth(in);
+        if (huffman == null) huffman = new HuffmanCodes.Reader(in);
+        else huffman.setInput(in);
+        return huffman;
+    }
+
+    /**
+     * Returns an empty output that collects what is written to it, for expanding into an array.
+     * @return the output, whose bytes are taken with bytes() once it is flushed
+     */
+    BitOutput output() {
+        if (output == null) {
+            bytes = new ByteArrayOutputStream();
+            output = new BitOutput(bytes);
+        }
+        bytes.reset();
+        return output;
+    }
+
+    /**
+     * Returns a copy of the bytes written to output() since it was last handed out.
+     * @return the bytes
+     */
+    byte[] bytes() {
+        return bytes.toByteArray();
+    }
+}
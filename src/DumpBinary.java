@@ -1,9 +1,13 @@
 /******************************************************************************
  *  Compilation:  javac DumpBinary.java
- *  Execution:    java BinaryDump n < file
- *  Dependencies: BinaryStdIn.java
+ *  Execution:    java DumpBinary n [file]
+ *  Execution:    java DumpBinary --lzw [--json] [--region n] [--dict file] [file]
+ *  Dependencies: BitInput.java StreamInspector.java SharedDictionary.java
  *
- *  Reads in a binary file and writes out the bits, n per line.
+ *  Reads in a binary file and writes out the bits, n per line. A file named on
+ *  the command line is memory-mapped, standard input is streamed in constant
+ *  memory, and the bits are written out a byte at a time through a table, so
+ *  multi-megabyte files dump at disk speed.
  *
  *  % java DumpBinary 60 < genomeTest.txt
  * 010000010101010001000001010001110100000101010100010001110100
@@ -12,43 +16,157 @@
  * 011101000001010101000100011101010100010001110100001101010100
  * 010000010100011101000011
  * 264 bits
+ *
+ *  With --lzw, reads a file written by TextCompressor and reports on its
+ *  codes instead: see StreamInspector. --json prints the report as a single
+ *  JSON object, --region sets how many text bytes each region of the report
+ *  covers (default 65536), and --dict names the trained dictionary the file
+ *  was compressed with, if any.
+ *
+ *  % java DumpBinary --lzw alice.lzw
+ *
  ******************************************************************************/
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 /**
  *  The {@code DumpBinary} class provides a client for displaying the contents
- *  of a binary file in binary.
+ *  of a binary file in binary, and for inspecting the codes of a compressed one.
  *
  *  @author Robert Sedgewick
  *  @author Kevin Wayne
  *  @author Zach Blick
+ *  @author Landon Moceri
  */
 public class DumpBinary {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The 8 bits of every byte, as characters
+    private static final char[][] BITS = new char[256][8];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            for (int i = 0; i < 8; i++) {
+                BITS[b][i] = ((b >>> (7 - i)) & 1) == 1 ? '1' : '0';
+            }
+        }
+    }
+
     /**
-     * Reads in a sequence of bytes from standard input and writes
-     * them to standard output in binary, k bits per line,
-     * where k is given as a command-line integer (defaults
-     * to 16 if no integer is specified); also writes the number
-     * of bits.
+     * Reads in a sequence of bytes from the file named on the command line, or from standard input,
+     * and writes them to standard output in binary, k bits per line, where k is given as a
+     * command-line integer (defaults to 16 if no integer is specified); also writes the number
+     * of bits. With --lzw, writes a report on the codes of a compressed file instead.
      *
      * @param args the command-line arguments
+     * @throws IOException if the file cannot be read
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         int bitsPerLine = 16;
-        if (args.length == 1) {
-            bitsPerLine = Integer.parseInt(args[0]);
+        boolean lzw = false;
+        boolean json = false;
+        int regionSize = StreamInspector.DEFAULT_REGION_SIZE;
+        SharedDictionary shared = null;
+        String file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--lzw")) lzw = true;
+            else if (args[i].equals("--json")) json = true;
+            else if (args[i].equals("--region") && i + 1 < args.length) regionSize = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--dict") && i + 1 < args.length) {
+                BitInput dictionary = BitInput.map(FileChannel.open(Paths.get(args[++i]), StandardOpenOption.READ));
+                shared = SharedDictionary.read(dictionary);
+                dictionary.close();
+            }
+            else if (args[i].startsWith("--")) throw new IllegalArgumentException("Illegal command line argument: " + args[i]);
+            else if (!lzw && file == null && args[i].matches("\\d+")) bitsPerLine = Integer.parseInt(args[i]);
+            else file = args[i];
+        }
+
+        // Map the file if there is one. Standard input is streamed and its length counted as it is read,
+        // except for --lzw, whose report needs the length up front, so there it is read into memory
+        BitInput in;
+        long size = -1;
+        if (file != null) {
+            FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+            size = channel.size();
+            in = BitInput.map(channel);
+        }
+        else if (lzw) {
+            byte[] bytes = System.in.readAllBytes();
+            size = bytes.length;
+            in = new BitInput(ByteBuffer.wrap(bytes));
+        }
+        else {
+            in = new BitInput(System.in);
         }
 
-        int count;
-        for (count = 0; !BinaryStdIn.isEmpty(); count++) {
-            if (bitsPerLine == 0) {
-                BinaryStdIn.readBoolean();
-                continue;
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), BUFFER_SIZE);
+        if (lzw) {
+            StreamInspector inspector = new StreamInspector(shared, regionSize);
+            inspector.inspect(in, size);
+            String name = (file != null) ? Paths.get(file).getFileName().toString() : "stdin";
+            out.write(json ? inspector.toJson(name) + System.lineSeparator() : inspector.report(name));
+        }
+        else {
+            dump(in, size, bitsPerLine, out);
+        }
+        out.flush();
+        in.close();
+    }
+
+    // Writes out the bits of the input, bitsPerLine to a line, then their count. The bytes are read
+    // in bulk and turned into characters through a table, rather than a bit and a print at a time.
+    // The size is the input's length, or -1 if it is not known, in which case the bits are counted as they are read
+    private static void dump(BitInput in, long size, int bitsPerLine, Writer out) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        if (bitsPerLine == 0) {
+            if (size < 0) {
+                size = 0;
+                for (int read; (read = in.readBytes(bytes, 0, bytes.length)) > 0; ) {
+                    size += read;
+                }
+            }
+            out.write(8 * size + " bits" + System.lineSeparator());
+            return;
+        }
+        String newline = System.lineSeparator();
+        char[] chars = new char[BUFFER_SIZE];
+        int filled = 0;
+        long column = 0;
+        long count = 0;
+        for (int read; (read = in.readBytes(bytes, 0, bytes.length)) > 0; ) {
+            count += 8L * read;
+            for (int i = 0; i < read; i++) {
+                char[] bits = BITS[bytes[i] & 0xff];
+                for (int j = 0; j < 8; j++) {
+                    if (column == bitsPerLine) {
+                        if (filled + newline.length() > chars.length) {
+                            out.write(chars, 0, filled);
+                            filled = 0;
+                        }
+                        newline.getChars(0, newline.length(), chars, filled);
+                        filled += newline.length();
+                        column = 0;
+                    }
+                    if (filled == chars.length) {
+                        out.write(chars, 0, filled);
+                        filled = 0;
+                    }
+                    chars[filled++] = bits[j];
+                    column++;
+                }
             }
-            else if (count != 0 && count % bitsPerLine == 0) System.out.println();
-            if (BinaryStdIn.readBoolean()) System.out.print(1);
-            else                           System.out.print(0);
         }
-        if (bitsPerLine != 0) System.out.println();
-        System.out.println(count + " bits");
+        out.write(chars, 0, filled);
+        out.write(newline + count + " bits" + newline);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+/**
+ * The {@code HashDictionary} class is an {@code LZWDictionary} stored in a few flat arrays.
+ * Every string in the dictionary is the string of some other code plus one byte, so it is
+ * keyed by the pair (parent code, unsigned byte) in an open-addressed hash table. Matching one more
+ * byte is then a single probe sequence over contiguous memory, with no objects to chase.
+ * <p>
+ * Each slot is stamped with the generation it was filled in, and only slots of the current
+ * generation, or of the one made permanent by keep(), are in use. So clear() empties the table
+ * by starting a new generation, without touching it, and a dictionary can be reused for any
+ * number of streams at no cost per stream.
+ *
+ * @author Landon Moceri
+ */
+public class HashDictionary implements LZWDictionary {
+
+    // Marks that no generation has been made permanent
+    private static final long NONE = -1;
+    // Generations are stamped in the upper half of a slot, and wrap around before they overflow it
+    private static final long LAST_GENERATION = Integer.MAX_VALUE;
+
+    // entries[i] packs the generation slot i was filled in above its key, which is (parent code + 1)
+    // above the unsigned byte, and codes[i] is that string's code. A slot that was never filled is 0,
+    // from generation 0, which is never in use
+    private final long[] entries;
+    private final int[] codes;
+    private final int mask;
+    private final int shift;
+    // The generation of the strings added since the last clear(), and of the ones kept across clears
+    private long generation = 1;
+    private long kept = NONE;
+    // The code of the current match, or TST.EMPTY if nothing has been matched yet
+    private int match = TST.EMPTY;
+
+    /**
+     * Creates an empty dictionary with room for the given number of codes.
+     * @param maxCodes The largest number of strings that will ever be added.
+     */
+    public HashDictionary(int maxCodes) {
+        // Keep the table at most half full so that probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(maxCodes, 2) * 2 - 1) << 1;
+        entries = new long[capacity];
+        codes = new int[capacity];
+        mask = capacity - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    // Fibonacci hashing spreads the packed (parent, byte) keys over the table
+    private int slot(int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    // Returns whether a slot holds a string that is still in the dictionary
+    private boolean inUse(long entry) {
+        long stamp = entry >>> 32;
+        return stamp == generation || stamp == kept;
+    }
+
+    /**
+     * Removes every string from the dictionary, other than the ones kept by keep(), and forgets the
+     * current match. This takes constant time, apart from once every two billion calls.
+     */
+    public void clear() {
+        if (++generation == LAST_GENERATION) {
+            // Start the stamps over, moving the kept strings to generation 1
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = ((entries[i] >>> 32) == kept) ? (1L << 32) | (entries[i] & 0xffffffffL) : 0;
+            }
+            if (kept != NONE) kept = 1;
+            generation = 2;
+        }
+        match = TST.EMPTY;
+    }
+
+    /**
+     * Keeps every string now in the dictionary across clear(). This takes constant time the first
+     * time it is called, and time proportional to the table's size after that.
+     * @return true
+     */
+    public boolean keep() {
+        if (kept != NONE) {
+            for (int i = 0; i < entries.length; i++) {
+                if ((entries[i] >>> 32) == generation) entries[i] = (kept << 32) | (entries[i] & 0xffffffffL);
+            }
+            return true;
+        }
+        kept = generation;
+        clear();
+        return true;
+    }
+
+    public void reset() {
+        match = TST.EMPTY;
+    }
+
+    public boolean advance(byte b) {
+        int key = ((match + 1) << 8) | (b & 0xff);
+        long current = (generation << 32) | key;
+        long permanent = (kept << 32) | key;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            long entry = entries[i];
+            if (entry == current || entry == permanent) {
+                match = codes[i];
+                return true;
+            }
+            if (!inUse(entry)) return false;
+        }
+    }
+
+    public int code() {
+        return match;
+    }
+
+    public void extend(byte b, int code) {
+        int key = ((match + 1) << 8) | (b & 0xff);
+        int i = slot(key);
+        while (inUse(entries[i]) && (int) entries[i] != key) {
+            i = (i + 1) & mask;
+        }
+        // A string added again keeps its first code, since the strings that extend it are keyed on that code
+        if (inUse(entries[i])) return;
+        entries[i] = (generation << 32) | key;
+        codes[i] = code;
+    }
+}
@@ -0,0 +1,378 @@
+/******************************************************************************
+ *  Compilation:  javac HuffmanCodes.java
+ *  Dependencies: BitInput.java BitOutput.java CodeWriter.java CodeReader.java TextCompressor.java
+ *
+ *  An entropy coding stage behind LZW: the codes are split into blocks, and
+ *  each block is written with a canonical Huffman code built for it alone.
+ *
+ *  % java TextCompressor - < alice.txt | java DumpBinary 0
+ *  426928 bits
+ *  % java TextCompressor - --huffman < alice.txt | java DumpBinary 0
+ *  420744 bits
+ *
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+/**
+ * The {@code HuffmanCodes} class writes LZW codes with a Huffman code instead of at a fixed width.
+ * LZW codes are spread fairly evenly over the table, but not quite: the single bytes, EOF and CLEAR
+ * below FIRST_CODE are each written far more often than any one string, and the strings added early
+ * on, which are the short and common ones, are written more often than the long ones added later.
+ * So each code is turned into a symbol first. A code below FIRST_CODE is its own symbol, and any
+ * other code is bucketed by its top BUCKET_BITS bits, at the width it would have been written at,
+ * with the bits below them written as they are.
+ * <p>
+ * The symbols are gathered into blocks of BLOCK_CODES codes, and each block starts with its number
+ * of codes and the length of every symbol's code, from which expand() rebuilds the same canonical
+ * code. Codes are at most MAX_LENGTH bits, so the reader decodes each symbol with a single look up
+ * in a table indexed by the next MAX_LENGTH bits. A block the Huffman code would not shrink, such
+ * as a very short one, is written at the usual fixed widths instead, marked by a bit in its header.
+ * A word written between codes, such as a checksum, ends the block before it.
+ *
+ * @author Landon Moceri
+ */
+public final class HuffmanCodes {
+
+    // The number of codes in a full block
+    static final int BLOCK_CODES = 1 << 15;
+    // The number of bits holding a block's number of codes, less one
+    static final int COUNT_BITS = 15;
+    // The longest Huffman code, and the number of bits holding each symbol's code length
+    static final int MAX_LENGTH = 12;
+    static final int LENGTH_BITS = 4;
+    // Codes from FIRST_CODE up are bucketed by their top BUCKET_BITS bits, at the width they would be written at
+    static final int BUCKET_BITS = 6;
+    static final int ALPHABET = TextCompressor.FIRST_CODE + (1 << BUCKET_BITS);
+
+    private HuffmanCodes() { }
+
+    /**
+     * Returns the length of each symbol's code in a Huffman code for the given frequencies, with no
+     * code longer than maxLength bits. If the Huffman code has longer ones, the frequencies are
+     * halved, which evens them out, until it does not.
+     * @param frequencies How many times each symbol occurs.
+     * @param maxLength The longest code allowed, which leaves room for every symbol that occurs.
+     * @return the code lengths, 0 for each symbol that never occurs
+     */
+    static int[] codeLengths(int[] frequencies, int maxLength) {
+        int[] weights = frequencies.clone();
+        int[] lengths = new int[weights.length];
+        int used = 0;
+        for (int weight : weights) {
+            if (weight > 0) used++;
+        }
+        if (used == 1) {
+            // A lone symbol still needs one bit, so that the reader has something to read
+            for (int s = 0; s < weights.length; s++) {
+                if (weights[s] > 0) lengths[s] = 1;
+            }
+            return lengths;
+        }
+        while (!huffman(weights, lengths, maxLength)) {
+            for (int s = 0; s < weights.length; s++) {
+                if (weights[s] > 0) weights[s] = (weights[s] + 1) / 2;
+            }
+        }
+        return lengths;
+    }
+
+    // Builds a Huffman tree over the symbols that occur, merging the two lightest nodes until one is
+    // left, and fills in the depth of each symbol. Returns false if any is deeper than maxLength
+    private static boolean huffman(int[] weights, int[] lengths, int maxLength) {
+        int n = weights.length;
+        // Nodes 0 to n - 1 are the symbols, and each merge adds the next node after them
+        long[] heap = new long[n];
+        int[] parent = new int[2 * n];
+        int size = 0;
+        for (int s = 0; s < n; s++) {
+            if (weights[s] > 0) size = push(heap, size, ((long) weights[s] << 32) | s);
+        }
+        int node = n;
+        while (size > 1) {
+            long a = heap[0];
+            size = pop(heap, size);
+            long b = heap[0];
+            size = pop(heap, size);
+            parent[(int) a] = node;
+            parent[(int) b] = node;
+            size = push(heap, size, (((a >>> 32) + (b >>> 32)) << 32) | node);
+            node++;
+        }
+        int root = node - 1;
+        for (int s = 0; s < n; s++) {
+            if (weights[s] == 0) {
+                lengths[s] = 0;
+                continue;
+            }
+            int depth = 0;
+            for (int p = s; p != root; p = parent[p]) {
+                depth++;
+            }
+            if (depth > maxLength) return false;
+            lengths[s] = depth;
+        }
+        return true;
+    }
+
+    // Adds a node, as its weight above its index, to a binary min heap of the given size
+    private static int push(long[] heap, int size, long x) {
+        int i = size++;
+        for (; i > 0 && heap[(i - 1) / 2] > x; i = (i - 1) / 2) {
+            heap[i] = heap[(i - 1) / 2];
+        }
+        heap[i] = x;
+        return size;
+    }
+
+    // Removes the lightest node from a binary min heap of the given size
+    private static int pop(long[] heap, int size) {
+        long x = heap[--size];
+        int i = 0;
+        for (int child = 1; child < size; i = child, child = 2 * i + 1) {
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= x) break;
+            heap[i] = heap[child];
+        }
+        heap[i] = x;
+        return size;
+    }
+
+    /**
+     * Returns the canonical code for the given code lengths: shorter codes come first, and codes of
+     * the same length are handed out in order of their symbols, so the lengths alone define the code.
+     * @param lengths The length of each symbol's code, or 0 for a symbol with no code.
+     * @return each symbol's code, in its low length bits
+     * @throws IllegalStateException if the lengths do not make a prefix code
+     */
+    static int[] canonicalCodes(int[] lengths) {
+        int[] count = new int[MAX_LENGTH + 1];
+        for (int length : lengths) {
+            count[length]++;
+        }
+        count[0] = 0;
+        int[] next = new int[MAX_LENGTH + 2];
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            next[length + 1] = (next[length] + count[length]) << 1;
+            // Codes of this length must not run past the last one
+            if (next[length] + count[length] > 1 << length) {
+                throw new IllegalStateException("Huffman code lengths are oversubscribed");
+            }
+        }
+        int[] codes = new int[lengths.length];
+        for (int s = 0; s < lengths.length; s++) {
+            if (lengths[s] > 0) codes[s] = next[lengths[s]]++;
+        }
+        return codes;
+    }
+
+    // Returns the symbol a code is written as, given the width it would have been written at
+    private static int symbol(int code, int width) {
+        if (code < TextCompressor.FIRST_CODE) return code;
+        return TextCompressor.FIRST_CODE + ((code - TextCompressor.FIRST_CODE) >>> (width - BUCKET_BITS));
+    }
+
+    /**
+     * Writes codes in Huffman coded blocks.
+     */
+    public static final class Writer implements CodeWriter {
+        private BitOutput out;
+        // Each code in the current block, and the width it would be written at without a Huffman code
+        private final int[] codes = new int[BLOCK_CODES];
+        private final byte[] widths = new byte[BLOCK_CODES];
+        private final int[] frequencies = new int[ALPHABET];
+        private int count;
+        // The number of bits the block would take at a fixed width
+        private long fixedBits;
+        private long bits;
+
+        /**
+         * Writes codes to the given output.
+         * @param out Where to write the blocks.
+         */
+        public Writer(BitOutput out) {
+            this.out = out;
+        }
+
+        /**
+         * Starts over with a new stream of codes, so that the writer can be reused.
+         * @param out Where to write the blocks.
+         */
+        void setOutput(BitOutput out) {
+            this.out = out;
+            Arrays.fill(frequencies, 0);
+            fixedBits = 0;
+            count = 0;
+            bits = 0;
+        }
+
+        public void write(int code, int next) {
+            int width = TextCompressor.codeSize(next);
+            codes[count] = code;
+            widths[count] = (byte) width;
+            frequencies[symbol(code, width)]++;
+            fixedBits += width;
+            if (++count == BLOCK_CODES) writeBlock();
+        }
+
+        public void writeWord(int word) {
+            // The block ends here, so that the word comes after all of its codes
+            finish();
+            out.write(word);
+            bits += 32;
+        }
+
+        public void finish() {
+            if (count > 0) writeBlock();
+        }
+
+        public long bits() {
+            return bits;
+        }
+
+        // Writes the block's header and its codes, then starts a new block
+        private void writeBlock() {
+            int[] lengths = codeLengths(frequencies, MAX_LENGTH);
+            long huffmanBits = LENGTH_BITS * ALPHABET;
+            for (int s = 0; s < ALPHABET; s++) {
+                huffmanBits += (long) frequencies[s] * lengths[s];
+            }
+            for (int i = 0; i < count; i++) {
+                if (codes[i] >= TextCompressor.FIRST_CODE) huffmanBits += widths[i] - BUCKET_BITS;
+            }
+
+            out.write(count - 1, COUNT_BITS);
+            // A block that a Huffman code would not make smaller, such as a short one, is written at a fixed width
+            boolean coded = huffmanBits < fixedBits;
+            out.write(coded);
+            bits += COUNT_BITS + 1;
+            if (!coded) {
+                for (int i = 0; i < count; i++) {
+                    out.write(codes[i], widths[i]);
+                }
+                bits += fixedBits;
+            }
+            else {
+                for (int length : lengths) {
+                    out.write(length, LENGTH_BITS);
+                }
+                int[] huffmanCodes = canonicalCodes(lengths);
+                for (int i = 0; i < count; i++) {
+                    int code = codes[i];
+                    int symbol = symbol(code, widths[i]);
+                    if (code < TextCompressor.FIRST_CODE) {
+                        out.write(huffmanCodes[symbol], lengths[symbol]);
+                        continue;
+                    }
+                    // The bucket's code is followed by the bits below the code's top BUCKET_BITS, in a single write
+                    int extraBits = widths[i] - BUCKET_BITS;
+                    int extra = (code - TextCompressor.FIRST_CODE) & ((1 << extraBits) - 1);
+                    out.write((huffmanCodes[symbol] << extraBits) | extra, lengths[symbol] + extraBits);
+                }
+                bits += huffmanBits;
+            }
+            Arrays.fill(frequencies, 0);
+            fixedBits = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Reads codes written by a {@code Writer}.
+     */
+    public static final class Reader implements CodeReader {
+        private BitInput in;
+        // Indexed by the next MAX_LENGTH bits, each entry holds the symbol they start with above
+        // the length of its code, or 0 where no code starts
+        private final int[] table = new int[1 << MAX_LENGTH];
+        // The number of codes left in the current block, and whether they are Huffman coded
+        private int remaining;
+        private boolean coded;
+        private long bits;
+        // How many of the bits were block headers
+        private long headerBits;
+
+        /**
+         * Reads codes from the given input.
+         * @param in Where to read the blocks from.
+         */
+        public Reader(BitInput in) {
+            this.in = in;
+        }
+
+        /**
+         * Starts over with a new stream of codes, so that the reader can be reused.
+         * @param in Where to read the blocks from.
+         */
+        void setInput(BitInput in) {
+            this.in = in;
+            remaining = 0;
+            bits = 0;
+            headerBits = 0;
+        }
+
+        public int read(int next) {
+            if (remaining == 0) readBlockHeader();
+            remaining--;
+            int width = TextCompressor.codeSize(next);
+            if (!coded) {
+                bits += width;
+                return in.readInt(width);
+            }
+            int entry = table[in.peekInt(MAX_LENGTH)];
+            if (entry == 0) throw new IllegalStateException("Illegal Huffman code");
+            int length = entry & 0xf;
+            in.skip(length);
+            bits += length;
+            int symbol = entry >>> 4;
+            if (symbol < TextCompressor.FIRST_CODE) return symbol;
+
+            // Put the code back together from its bucket and the bits below it
+            int extraBits = width - BUCKET_BITS;
+            bits += extraBits;
+            return TextCompressor.FIRST_CODE + (((symbol - TextCompressor.FIRST_CODE) << extraBits) | in.readInt(extraBits));
+        }
+
+        public int readWord() {
+            if (remaining != 0) throw new IllegalStateException("Word is in the middle of a block");
+            bits += 32;
+            return in.readInt();
+        }
+
+        public long bits() {
+            return bits;
+        }
+
+        /**
+         * Returns the number of bits read so far in block headers, which bits() counts too.
+         * @return the number of bits
+         */
+        long headerBits() {
+            return headerBits;
+        }
+
+        // Reads the next block's header and rebuilds its decoding table
+        private void readBlockHeader() {
+            remaining = in.readInt(COUNT_BITS) + 1;
+            coded = in.readBoolean();
+            bits += COUNT_BITS + 1;
+            headerBits += COUNT_BITS + 1;
+            if (!coded) return;
+            int[] lengths = new int[ALPHABET];
+            for (int s = 0; s < ALPHABET; s++) {
+                lengths[s] = in.readInt(LENGTH_BITS);
+                if (lengths[s] > MAX_LENGTH) throw new IllegalStateException("Illegal Huffman code length = " + lengths[s]);
+            }
+            bits += LENGTH_BITS * ALPHABET;
+            headerBits += LENGTH_BITS * ALPHABET;
+            int[] codes = canonicalCodes(lengths);
+            Arrays.fill(table, 0);
+            // A code of length l fills every entry whose top l bits are that code
+            for (int s = 0; s < ALPHABET; s++) {
+                if (lengths[s] == 0) continue;
+                int from = codes[s] << (MAX_LENGTH - lengths[s]);
+                Arrays.fill(table, from, from + (1 << (MAX_LENGTH - lengths[s])), (s << 4) | lengths[s]);
+            }
+        }
+    }
+}
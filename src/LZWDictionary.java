@@ -0,0 +1,54 @@
+/**
+ * The {@code LZWDictionary} interface describes the string to code table that LZW compression
+ * grows as it reads its input. Strings are made of bytes, taken as unsigned values from 0 to 255,
+ * so any binary input can be compressed. The compressor walks the dictionary one byte at a time:
+ * it extends the current match with advance() for as long as the dictionary knows the result,
+ * writes out code(), and then adds the match plus the byte that broke it with extend().
+ * Once the table is full, the compressor may clear() it and start over.
+ *
+ * @author Landon Moceri
+ */
+public interface LZWDictionary {
+
+    /**
+     * Removes every string from the dictionary, other than any kept by keep(), and forgets the current match.
+     */
+    void clear();
+
+    /**
+     * Keeps every string now in the dictionary across later calls to clear(), so that a dictionary
+     * reused for many streams need not add its starting strings back each time. Not every
+     * dictionary can do this; one that cannot keeps nothing, and clear() empties it as before.
+     * @return true if the strings are kept
+     */
+    default boolean keep() {
+        return false;
+    }
+
+    /**
+     * Forgets the current match, so that the next call to advance() starts from the empty string.
+     */
+    void reset();
+
+    /**
+     * Tries to extend the current match by one byte.
+     * @param b The next byte.
+     * @return true if the current match plus b is in the dictionary, in which case it becomes the
+     * current match. Otherwise, the current match is left as it was and false is returned.
+     */
+    boolean advance(byte b);
+
+    /**
+     * Returns the code of the current match.
+     * @return the code of the current match, or TST.EMPTY if nothing has been matched.
+     */
+    int code();
+
+    /**
+     * Adds the current match plus one byte to the dictionary. The current match is unchanged. If the
+     * dictionary already holds the string, it keeps its first code, and the new one goes unused.
+     * @param b The byte to append to the current match.
+     * @param code The code for the new string.
+     */
+    void extend(byte b, int code);
+}
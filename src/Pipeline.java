@@ -0,0 +1,267 @@
+/******************************************************************************
+ *  Compilation:  javac Pipeline.java
+ *  Dependencies: none
+ *
+ *  Channels that read ahead and write behind on threads of their own, so that
+ *  compress() and expand() keep coding while the input and output wait on
+ *  disks or pipes.
+ *
+ *  % java TextCompressor - --pipeline input.txt output.lzw
+ *
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code Pipeline} class splits a run of compress() or expand() into three stages: a reader
+ * thread that fills input buffers, the calling thread that codes them, and a writer thread that
+ * drains output buffers. It does so by wrapping the underlying channels, so {@code BitInput} and
+ * {@code BitOutput} read and write them as usual. Each stage hands buffers to the next through a
+ * bounded single-producer, single-consumer ring, and gets them back through another one once they
+ * are used up, so a fixed set of BUFFERS buffers is recycled for the whole run.
+ *
+ * @author Landon Moceri
+ */
+public final class Pipeline {
+
+    // The size and number of buffers in flight between two stages
+    static final int BUFFER_SIZE = 1 << 20;
+    static final int BUFFERS = 4;
+    // How many times a stage spins before it parks while it waits on another, and for how long it parks
+    static final int SPINS = 100;
+    static final long PARK_NANOS = 20_000;
+
+    // Handed on after the last buffer, to mark the end of the input or output
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private Pipeline() { }
+
+    /**
+     * Returns a channel that reads from the source on a thread of its own, up to BUFFERS buffers
+     * ahead of the reads made from it.
+     * @param source The channel to read from. It is closed when the returned channel is.
+     * @return the channel
+     */
+    public static ReadableByteChannel input(ReadableByteChannel source) {
+        return new Input(source);
+    }
+
+    /**
+     * Returns a channel whose writes are made to the target on a thread of its own, up to BUFFERS
+     * buffers behind. Closing it waits for every write to finish, and reports any that failed.
+     * @param target The channel to write to. It is closed when the returned channel is.
+     * @return the channel
+     */
+    public static WritableByteChannel output(WritableByteChannel target) {
+        return new Output(target);
+    }
+
+    // A bounded queue from one thread to one other. Each side only writes its own index and reads
+    // the other's, so neither needs a lock: the producer publishes a slot by moving tail past it
+    // after filling it, and the consumer frees a slot by moving head past it after emptying it
+    static final class Ring<T> {
+        private final Object[] slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private volatile boolean closed;
+
+        Ring(int capacity) {
+            slots = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        // Adds x and returns true, waiting for room if the ring is full, or returns false once it is closed
+        boolean put(T x) {
+            long t = tail.get();
+            for (int spins = 0; t - head.get() == slots.length; spins++) {
+                if (closed) return false;
+                idle(spins);
+            }
+            slots[(int) t & mask] = x;
+            tail.lazySet(t + 1);
+            return true;
+        }
+
+        // Removes and returns the oldest item, waiting for one if the ring is empty, or returns null
+        // once it is empty and closed
+        @SuppressWarnings("unchecked")
+        T take() {
+            long h = head.get();
+            for (int spins = 0; h == tail.get(); spins++) {
+                if (closed) return null;
+                idle(spins);
+            }
+            T x = (T) slots[(int) h & mask];
+            slots[(int) h & mask] = null;
+            head.lazySet(h + 1);
+            return x;
+        }
+
+        // Wakes both sides up for good: put() gives up, and take() gives up once the ring is empty
+        void close() {
+            closed = true;
+        }
+
+        // Spins for a while, since the other side is usually quick, then parks between checks
+        private static void idle(int spins) {
+            if (spins < SPINS) Thread.onSpinWait();
+            else LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    // Reads ahead of the coder: the reader thread fills free buffers and hands them over full
+    private static final class Input implements ReadableByteChannel {
+        private final ReadableByteChannel source;
+        private final Ring<ByteBuffer> full = new Ring<>(BUFFERS);
+        private final Ring<ByteBuffer> free = new Ring<>(BUFFERS);
+        private volatile IOException failure;
+        // The buffer being read by the coder, or null before the first read
+        private ByteBuffer current;
+        private boolean open = true;
+
+        Input(ReadableByteChannel source) {
+            this.source = source;
+            for (int i = 0; i < BUFFERS; i++) {
+                free.put(ByteBuffer.allocateDirect(BUFFER_SIZE));
+            }
+            Thread thread = new Thread(this::run, "TextCompressor reader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // The reader thread hands on each buffer as soon as a read puts anything in it, so a slow pipe
+        // is coded as it trickles in, while a file fills whole buffers
+        private void run() {
+            try {
+                while (true) {
+                    ByteBuffer buffer = free.take();
+                    if (buffer == null) return;
+                    buffer.clear();
+                    if (source.read(buffer) < 0) break;
+                    buffer.flip();
+                    if (!full.put(buffer)) return;
+                }
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+            full.put(END);
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            while (current == null || !current.hasRemaining()) {
+                if (current == END) {
+                    if (failure != null) throw new IOException("Could not read input", failure);
+                    return -1;
+                }
+                if (current != null) free.put(current);
+                current = full.take();
+            }
+            int n = Math.min(dst.remaining(), current.remaining());
+            int limit = current.limit();
+            current.limit(current.position() + n);
+            dst.put(current);
+            current.limit(limit);
+            return n;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        // Stops the reader thread, which may be blocked in a read until the source is closed
+        public void close() throws IOException {
+            open = false;
+            free.close();
+            full.close();
+            source.close();
+        }
+    }
+
+    // Writes behind the coder: each write is copied into free buffers, which the writer thread drains
+    private static final class Output implements WritableByteChannel {
+        private final WritableByteChannel target;
+        private final Ring<ByteBuffer> full = new Ring<>(BUFFERS);
+        private final Ring<ByteBuffer> free = new Ring<>(BUFFERS);
+        private final Thread thread;
+        private volatile IOException failure;
+        private boolean open = true;
+
+        Output(WritableByteChannel target) {
+            this.target = target;
+            for (int i = 0; i < BUFFERS; i++) {
+                free.put(ByteBuffer.allocateDirect(BUFFER_SIZE));
+            }
+            thread = new Thread(this::run, "TextCompressor writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // The writer thread writes out each buffer it is handed, then hands it back. If a write fails,
+        // it closes the free ring, so that the coder stops waiting for buffers and sees the failure
+        private void run() {
+            try {
+                while (true) {
+                    ByteBuffer buffer = full.take();
+                    if (buffer == END || buffer == null) return;
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    free.put(buffer);
+                }
+            }
+            catch (IOException e) {
+                failure = e;
+                free.close();
+            }
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            int n = src.remaining();
+            while (src.hasRemaining()) {
+                ByteBuffer buffer = free.take();
+                if (buffer == null) throw new IOException("Could not write output", failure);
+                buffer.clear();
+                int k = Math.min(src.remaining(), buffer.remaining());
+                int limit = src.limit();
+                src.limit(src.position() + k);
+                buffer.put(src);
+                src.limit(limit);
+                buffer.flip();
+                full.put(buffer);
+            }
+            return n;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        // Waits for the writer thread to write out every buffer, then closes the target
+        public void close() throws IOException {
+            if (!open) return;
+            open = false;
+            full.put(END);
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing output", e);
+            }
+            finally {
+                target.close();
+            }
+            if (failure != null) throw new IOException("Could not write output", failure);
+        }
+    }
+}
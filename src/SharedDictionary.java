@@ -0,0 +1,241 @@
+/******************************************************************************
+ *  Compilation:  javac SharedDictionary.java
+ *  Dependencies: BitInput.java BitOutput.java LZWDictionary.java HashDictionary.java TextCompressor.java
+ *
+ *  A dictionary of strings trained on sample text, which compress() and
+ *  expand() both load before the first code, so that short inputs start out
+ *  with a full vocabulary instead of just the 256 single characters.
+ *
+ *  % java TextCompressor train alice.txt alice.dict
+ *  Trained dictionary 29badedf with 14291 strings
+ *  % java TextCompressor - --dict alice.dict < message.txt > message.lzw
+ *
+ ******************************************************************************/
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code SharedDictionary} class holds a trained set of LZW strings. Like the tables built by
+ * compress() and expand(), every string is the string of an earlier code plus one last byte, so
+ * entry i is stored as that pair and given the code {@code TextCompressor.FIRST_CODE + i}. The
+ * dictionary is identified by a CRC-32 of its entries, which compressed streams record so that
+ * they are never expanded with the wrong one.
+ *
+ * @author Landon Moceri
+ */
+public class SharedDictionary {
+
+    // Marks the start of a saved dictionary, "LZWD"
+    static final int MAGIC = 0x4C5A5744;
+
+    // prefix[i] is the code of every byte but the last of entry i, and last[i] is its last byte
+    private final int[] prefix;
+    private final byte[] last;
+    private final int id;
+
+    private SharedDictionary(int[] prefix, byte[] last) {
+        this.prefix = prefix;
+        this.last = last;
+        this.id = checksum(prefix, last);
+    }
+
+    // The CRC-32 of every entry, as its prefix code followed by its last byte
+    private static int checksum(int[] prefix, byte[] last) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < prefix.length; i++) {
+            crc.update(prefix[i] >>> 24);
+            crc.update(prefix[i] >>> 16);
+            crc.update(prefix[i] >>> 8);
+            crc.update(prefix[i]);
+            crc.update(last[i]);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Trains a dictionary by running LZW over the sample with a table of the given width, then
+     * keeping the strings whose codes it wrote out most often, along with every prefix they need.
+     * The dictionary fills at most half of the table, leaving the rest for each input to grow into.
+     * @param sample The text to train on.
+     * @param maxCodeSize The widest code of the streams the dictionary will be used for.
+     * @return the trained dictionary
+     */
+    public static SharedDictionary train(BitInput sample, int maxCodeSize) {
+        if (maxCodeSize < TextCompressor.MIN_CODE_SIZE || maxCodeSize > TextCompressor.MAX_CODE_SIZE) {
+            throw new IllegalArgumentException("Illegal code size = " + maxCodeSize);
+        }
+        int maxCode = 1 << maxCodeSize;
+        int[] prefix = new int[maxCode];
+        byte[] last = new byte[maxCode];
+        int[] uses = new int[maxCode];
+
+        // Compress the sample without writing anything, counting how often each code would be written
+        LZWDictionary dictionary = new HashDictionary(maxCode);
+        for (int i = 0; i < TextCompressor.NUM_ASCII_CHARS; i++) {
+            dictionary.extend((byte) i, i);
+        }
+        int code = TextCompressor.FIRST_CODE;
+        if (!sample.isEmpty()) {
+            dictionary.advance(sample.readByte());
+            while (!sample.isEmpty()) {
+                byte next = sample.readByte();
+                if (dictionary.advance(next)) {
+                    continue;
+                }
+                uses[dictionary.code()]++;
+                if (code < maxCode) {
+                    prefix[code] = dictionary.code();
+                    last[code] = next;
+                    dictionary.extend(next, code++);
+                }
+                dictionary.reset();
+                dictionary.advance(next);
+            }
+        }
+
+        // Take the codes in order of use, each along with any of its prefixes not taken yet
+        int limit = maxCode / 2 - TextCompressor.FIRST_CODE;
+        Integer[] byUse = new Integer[code - TextCompressor.FIRST_CODE];
+        for (int i = 0; i < byUse.length; i++) {
+            byUse[i] = TextCompressor.FIRST_CODE + i;
+        }
+        Arrays.sort(byUse, (a, b) -> Integer.compare(uses[b], uses[a]));
+        boolean[] kept = new boolean[code];
+        int size = 0;
+        for (int c : byUse) {
+            if (uses[c] == 0) break;
+            int missing = 0;
+            for (int p = c; p >= TextCompressor.FIRST_CODE && !kept[p]; p = prefix[p]) {
+                missing++;
+            }
+            if (size + missing > limit) continue;
+            for (int p = c; p >= TextCompressor.FIRST_CODE && !kept[p]; p = prefix[p]) {
+                kept[p] = true;
+            }
+            size += missing;
+        }
+
+        // Number the kept strings in the order LZW added them, which puts every prefix before its
+        // extensions, and point each one at its prefix's new code
+        int[] renumbered = new int[code];
+        int[] keptPrefix = new int[size];
+        byte[] keptLast = new byte[size];
+        for (int c = 0, i = 0; c < code; c++) {
+            if (c < TextCompressor.FIRST_CODE) {
+                renumbered[c] = c;
+            }
+            else if (kept[c]) {
+                renumbered[c] = TextCompressor.FIRST_CODE + i;
+                keptPrefix[i] = renumbered[prefix[c]];
+                keptLast[i] = last[c];
+                i++;
+            }
+        }
+        return new SharedDictionary(keptPrefix, keptLast);
+    }
+
+    /**
+     * Reads a dictionary saved by write().
+     * @param in Where to read the dictionary from.
+     * @return the dictionary
+     * @throws IllegalStateException if the input does not hold a whole, uncorrupted dictionary
+     */
+    public static SharedDictionary read(BitInput in) {
+        if (in.readInt() != MAGIC) throw new IllegalStateException("Not a dictionary file");
+        int size = in.readInt();
+        int id = in.readInt();
+        if (size < 0 || size > (1 << TextCompressor.MAX_CODE_SIZE)) {
+            throw new IllegalStateException("Illegal dictionary size = " + size);
+        }
+        int[] prefix = new int[size];
+        byte[] last = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int code = TextCompressor.FIRST_CODE + i;
+            prefix[i] = in.readInt(TextCompressor.codeSize(code));
+            last[i] = in.readByte();
+            if (prefix[i] >= code || prefix[i] == TextCompressor.EOF || prefix[i] == TextCompressor.CLEAR) {
+                throw new IllegalStateException("Illegal prefix code = " + prefix[i]);
+            }
+        }
+        SharedDictionary dictionary = new SharedDictionary(prefix, last);
+        if (dictionary.id != id) throw new IllegalStateException("Dictionary does not match its id");
+        return dictionary;
+    }
+
+    /**
+     * Writes the dictionary out: a header of the magic number, the number of entries and the id,
+     * then each entry's prefix code, as wide as the code it would be written with, and its last byte.
+     * @param out Where to write the dictionary. It is flushed, but not closed, when done.
+     */
+    public void write(BitOutput out) {
+        out.write(MAGIC);
+        out.write(prefix.length);
+        out.write(id);
+        for (int i = 0; i < prefix.length; i++) {
+            out.write(prefix[i], TextCompressor.codeSize(TextCompressor.FIRST_CODE + i));
+            out.write(last[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the id that identifies this dictionary in compressed streams.
+     * @return the CRC-32 of the entries
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Returns the number of strings in the dictionary, not counting the single characters.
+     * @return the number of entries
+     */
+    public int size() {
+        return prefix.length;
+    }
+
+    /**
+     * Returns the code of every byte but the last of the string with the given code.
+     * @param code A code from FIRST_CODE to FIRST_CODE + size() - 1.
+     * @return the code of the string's prefix
+     */
+    public int prefix(int code) {
+        return prefix[code - TextCompressor.FIRST_CODE];
+    }
+
+    /**
+     * Returns the last byte of the string with the given code.
+     * @param code A code from FIRST_CODE to FIRST_CODE + size() - 1.
+     * @return the string's last byte
+     */
+    public byte last(int code) {
+        return last[code - TextCompressor.FIRST_CODE];
+    }
+
+    /**
+     * Adds every string to an LZW dictionary that already holds the single characters.
+     * @param dictionary The dictionary to fill.
+     */
+    public void preload(LZWDictionary dictionary) {
+        byte[] buffer = new byte[256];
+        for (int i = 0; i < prefix.length; i++) {
+            // Spell out the prefix backwards, then walk it from the start and add the last byte
+            int length = 0;
+            for (int c = prefix[i]; ; c = prefix[c - TextCompressor.FIRST_CODE]) {
+                if (length == buffer.length) buffer = Arrays.copyOf(buffer, 2 * length);
+                if (c < TextCompressor.NUM_ASCII_CHARS) {
+                    buffer[length++] = (byte) c;
+                    break;
+                }
+                buffer[length++] = last[c - TextCompressor.FIRST_CODE];
+            }
+            dictionary.reset();
+            for (int j = length - 1; j >= 0; j--) {
+                dictionary.advance(buffer[j]);
+            }
+            dictionary.extend(last[i], TextCompressor.FIRST_CODE + i);
+        }
+        dictionary.reset();
+    }
+}
@@ -0,0 +1,488 @@
+/******************************************************************************
+ *  Compilation:  javac StreamInspector.java
+ *  Dependencies: TextCompressor.java BitInput.java BitOutput.java CodeReader.java CodeListener.java
+ *                HuffmanCodes.java Decompressor.java SharedDictionary.java
+ *
+ *  Walks a compressed file code by code, as expand() reads it, and reports
+ *  where its bits went: how often each code and code width came up, how the
+ *  table grew, and how many bits each region of the text took.
+ *
+ *  % java DumpBinary --lzw alice.lzw
+ *  alice.lzw: 53366 bytes, 1 member, 138008 text bytes (38.67%)
+ *  ...
+ *
+ ******************************************************************************/
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * The {@code StreamInspector} class reads the members written by {@code TextCompressor.compress()}
+ * down to each frame and code. Each stream of codes is expanded by expand()'s own decoder, which
+ * reports every code it reads to the inspector and whose text is thrown away, so the inspector
+ * sees everything about the codes: their counts by value, class and width, the length of the
+ * match each stands for, the table size after each one, and the bits spent around them on
+ * headers, frames, checks, Huffman tables and stored blocks. The text is split into regions of a
+ * fixed number of bytes, and each region records its bits per byte and how full the table was.
+ * A stored block keeps the table size of the region it falls in, since it has no table of its own.
+ * <p>
+ * Checksums are verified just as expand() verifies them, so a damaged stream is reported the same
+ * way expand() would report it.
+ *
+ * @author Landon Moceri
+ */
+public class StreamInspector {
+
+    static final int DEFAULT_REGION_SIZE = 1 << 16;
+    static final int TOP_CODES = 10;
+    static final int MAX_WIDTH = 32;
+    static final int LENGTH_BUCKETS = 32;
+
+    // Reads member headers, with the shared dictionary if the streams need one
+    private final TextCompressor compressor;
+    private final int regionSize;
+    // Holds the table that decode() fills, along with the ASCII characters and the shared dictionary
+    private final Decompressor context = new Decompressor();
+    // Counts the codes as decode() reads them, and takes the text it writes
+    private final Counter listener = new Counter();
+    private final BitOutput discard = new BitOutput(OutputStream.nullOutputStream());
+
+    // Totals over the whole input
+    private long inputBits;
+    private int members;
+    private long textBytes;
+    private long codes;
+    private long literals;
+    private long clears;
+    private long codedBlocks;
+    private long storedBlocks;
+    private long storedBytes;
+    // Where the bits went, other than into codes
+    private long codeBits;
+    private long headerBits;
+    private long frameBits;
+    private long checkBits;
+    private long tableBits;
+    private long indexBits;
+    // How often each code value, code width and match length came up. Match lengths are bucketed by
+    // their highest bit, so bucket b counts lengths from 2^b to 2^(b+1) - 1
+    private long[] codeCounts = new long[TextCompressor.FIRST_CODE];
+    private final long[] widthCounts = new long[MAX_WIDTH + 1];
+    private final long[] lengthCounts = new long[LENGTH_BUCKETS];
+    // The widest code of any member, and the largest table any stream filled
+    private int maxCodeSize;
+    private int largestTable;
+    // The bits read by the last call to inspectCodes(), for finding a frame's padding
+    private long blockBits;
+    private final List<String> memberLines = new ArrayList<>();
+
+    // A region of the text, with the bits spent on it and the table size at its end
+    private static class Region {
+        long start;
+        long text;
+        long bits;
+        int table;
+        long clears;
+    }
+
+    private final List<Region> regions = new ArrayList<>();
+    private Region region;
+
+    /**
+     * Initializes an inspector.
+     * @param shared The trained dictionary the streams were compressed with, or null.
+     * @param regionSize The number of text bytes in each region.
+     */
+    public StreamInspector(SharedDictionary shared, int regionSize) {
+        if (regionSize < 1) throw new IllegalArgumentException("Illegal region size = " + regionSize);
+        this.compressor = new TextCompressor();
+        if (shared != null) compressor.setDictionary(shared);
+        this.regionSize = regionSize;
+        region = new Region();
+        regions.add(region);
+    }
+
+    /**
+     * Reads every member of a compressed input, adding what was in it to the report.
+     * @param in The compressed bits.
+     * @param size The number of bytes in the input, which is all read.
+     * @throws IllegalStateException if the input is not a whole compressed stream
+     */
+    public void inspect(BitInput in, long size) {
+        inputBits += 8 * size;
+        try {
+            do {
+                inspectMember(in);
+                in.align();
+            } while (!in.isEmpty());
+        }
+        catch (NoSuchElementException e) {
+            throw new IllegalStateException("Stream is cut short after byte " + textBytes, e);
+        }
+    }
+
+    // Reads one member's header, then its frames or its single stream of codes
+    private void inspectMember(BitInput in) {
+        long textStart = textBytes;
+        long bitsStart = spentBits();
+        TextCompressor.Header header = compressor.readHeader(in);
+        members++;
+        maxCodeSize = Math.max(maxCodeSize, header.codeSize);
+        long bits = 5 * TextCompressor.HEADER_SIZE + (header.has(TextCompressor.DICTIONARY) ? 32 : 0);
+        headerBits += bits;
+        addBits(bits);
+
+        long blocks = 0;
+        long stored = 0;
+        if (header.has(TextCompressor.BLOCKS)) {
+            for (;; blocks++) {
+                int length = in.readInt();
+                int compressedLength = in.readInt();
+                frameBits += 64;
+                addBits(64);
+                if (length == 0) break;
+                boolean isStored = (compressedLength & TextCompressor.STORED_FRAME) != 0;
+                compressedLength &= ~TextCompressor.STORED_FRAME;
+                if (!TextCompressor.isLegalFrame(length, compressedLength, isStored)) {
+                    throw new IllegalStateException("Illegal frame header for block " + blocks + " at byte " + textBytes);
+                }
+                byte[] block = new byte[compressedLength];
+                if (in.readBytes(block, 0, compressedLength) < compressedLength) {
+                    throw new IllegalStateException("Frame of block " + blocks + " at byte " + textBytes + " is cut short");
+                }
+                if (isStored) {
+                    storedBlocks++;
+                    storedBytes += length;
+                    stored++;
+                    addStored(length);
+                    checkBits += 32;
+                    addBits(32);
+                }
+                else {
+                    codedBlocks++;
+                    long blockText = textBytes;
+                    BitInput codes = new BitInput(ByteBuffer.wrap(block));
+                    inspectCodes(codes, header);
+                    if (textBytes - blockText != length) {
+                        throw new IllegalStateException("Block " + blocks + " expands to " + (textBytes - blockText)
+                                + " bytes instead of " + length);
+                    }
+                    // The frame's bytes end on a byte boundary, so its last few bits are padding
+                    addBits(8L * compressedLength - blockBits);
+                }
+            }
+            if (header.has(TextCompressor.INDEX)) {
+                for (int i = 0; i < 2 * blocks + 1; i++) {
+                    in.readLong();
+                }
+                if (in.readInt() != blocks || in.readInt() != TextCompressor.INDEX_MAGIC) {
+                    throw new IllegalStateException("Index does not match the frames before it");
+                }
+                long index = 64 * (2 * blocks + 1) + 64;
+                indexBits += index;
+                addBits(index);
+            }
+        }
+        else {
+            inspectCodes(in, header);
+        }
+
+        StringBuilder flags = new StringBuilder();
+        String[] names = {"blocks", "index", "dictionary", "huffman", "checks"};
+        for (int i = 0; i < names.length; i++) {
+            if (header.has(1 << i)) flags.append(flags.length() == 0 ? "" : "+").append(names[i]);
+        }
+        memberLines.add(String.format(Locale.ROOT, "member %d: version %d, %d-bit codes, %s, text bytes %d to %d, %d bits%s",
+                members, header.version, header.codeSize, (flags.length() == 0) ? "no flags" : flags, textStart, textBytes,
+                spentBits() - bitsStart, header.has(TextCompressor.BLOCKS) ? ", " + blocks + " blocks (" + stored + " stored)" : ""));
+    }
+
+    // Reads one stream of codes up to its trailer through expand()'s own decode(), which tells the
+    // listener about each code, so the width of each code and the place of each check are found the
+    // same way expand() finds them. The text itself is thrown away
+    private void inspectCodes(BitInput in, TextCompressor.Header header) {
+        int maxCode = 1 << header.codeSize;
+        if (codeCounts.length < maxCode) codeCounts = Arrays.copyOf(codeCounts, maxCode);
+        compressor.decode(in, discard, header, textBytes, context, listener);
+        // Whatever was read after the EOF is the trailer
+        long trailer = listener.reader.bits() - listener.bits;
+        checkBits += trailer;
+        addBits(trailer);
+        blockBits = listener.reader.bits() - listener.startBits;
+    }
+
+    // Counts each code decode() reads, by the bits the reader took for it
+    private class Counter implements CodeListener {
+        CodeReader reader;
+        HuffmanCodes.Reader huffman;
+        // The reader's bits and Huffman table bits when the stream started and after the last code
+        long startBits;
+        long bits;
+        long tables;
+
+        public void start(CodeReader reader) {
+            this.reader = reader;
+            huffman = (reader instanceof HuffmanCodes.Reader) ? (HuffmanCodes.Reader) reader : null;
+            startBits = bits = reader.bits();
+            tables = (huffman != null) ? huffman.headerBits() : 0;
+        }
+
+        public void text(int code, int length, int tableSize) {
+            int width = count(code);
+            codes++;
+            if (code < TextCompressor.NUM_ASCII_CHARS) literals++;
+            lengthCounts[31 - Integer.numberOfLeadingZeros(length)]++;
+            textBytes += length;
+            addText(length, width, tableSize);
+        }
+
+        public void clear(int tableSize) {
+            addBits(count(TextCompressor.CLEAR));
+            clears++;
+            region.clears++;
+            largestTable = Math.max(largestTable, tableSize);
+        }
+
+        public void eof(int tableSize) {
+            addBits(count(TextCompressor.EOF));
+            largestTable = Math.max(largestTable, tableSize);
+        }
+
+        public void check() {
+            long check = reader.bits() - bits;
+            bits = reader.bits();
+            checkBits += check;
+            addBits(check);
+        }
+
+        // Counts a code just read and returns its width, taking out any Huffman table read along with it
+        private int count(int code) {
+            long table = (huffman != null) ? huffman.headerBits() - tables : 0;
+            tables += table;
+            int width = (int) (reader.bits() - bits - table);
+            bits = reader.bits();
+            tableBits += table;
+            addBits(table);
+            widthCounts[Math.min(width, MAX_WIDTH)]++;
+            codeBits += width;
+            if (code < codeCounts.length) codeCounts[code]++;
+            return width;
+        }
+    }
+
+    // Adds the bits of a code, and the text it stands for, to the current region
+    private void addText(long bytes, long bits, int table) {
+        region.text += bytes;
+        region.bits += bits;
+        region.table = table;
+        if (region.text >= regionSize) {
+            Region next = new Region();
+            next.start = region.start + region.text;
+            next.table = table;
+            region = next;
+            regions.add(region);
+        }
+    }
+
+    // Adds bits that stand for no text, such as headers and checks, to the current region
+    private void addBits(long bits) {
+        region.bits += bits;
+    }
+
+    // Adds a stored block, at 8 bits per byte, spreading it over as many regions as it covers
+    private void addStored(long bytes) {
+        while (bytes > 0) {
+            long n = Math.min(bytes, regionSize - region.text);
+            addText(n, 8 * n, region.table);
+            textBytes += n;
+            bytes -= n;
+        }
+    }
+
+    // The bits accounted for so far
+    private long spentBits() {
+        return codeBits + headerBits + frameBits + checkBits + tableBits + indexBits + 8 * storedBytes;
+    }
+
+    // The regions with text in them. A last region with none only holds the bits of trailers, which
+    // are folded into the region before it
+    private List<Region> regions() {
+        List<Region> list = new ArrayList<>(regions);
+        Region last = list.get(list.size() - 1);
+        if (last.text == 0 && list.size() > 1) {
+            list.remove(list.size() - 1);
+            list.get(list.size() - 1).bits += last.bits;
+        }
+        return list;
+    }
+
+    // The codes that came up most often, most often first
+    private int[] topCodes() {
+        int[] top = new int[TOP_CODES];
+        int found = 0;
+        for (int c = 0; c < codeCounts.length; c++) {
+            if (codeCounts[c] == 0) continue;
+            int i = Math.min(found, TOP_CODES - 1);
+            if (found == TOP_CODES && codeCounts[c] <= codeCounts[top[i]]) continue;
+            while (i > 0 && codeCounts[top[i - 1]] < codeCounts[c]) {
+                top[i] = top[i - 1];
+                i--;
+            }
+            top[i] = c;
+            if (found < TOP_CODES) found++;
+        }
+        return Arrays.copyOf(top, found);
+    }
+
+    // What a code stands for, for the report
+    private static String describe(int code) {
+        if (code == TextCompressor.EOF) return "EOF";
+        if (code == TextCompressor.CLEAR) return "CLEAR";
+        if (code >= TextCompressor.NUM_ASCII_CHARS) return Integer.toString(code);
+        if (code >= 0x20 && code < 0x7f && code != '"' && code != '\\') return "'" + (char) code + "'";
+        return String.format("0x%02x", code);
+    }
+
+    // The smallest code in each range of codes sharing a width, from the literals up to the widest code
+    private int[] codeRanges() {
+        int[] starts = new int[maxCodeSize - TextCompressor.MIN_CODE_SIZE + 3];
+        starts[0] = 0;
+        starts[1] = TextCompressor.EOF;
+        starts[2] = TextCompressor.FIRST_CODE;
+        for (int w = TextCompressor.MIN_CODE_SIZE + 1; w <= maxCodeSize; w++) {
+            starts[w - TextCompressor.MIN_CODE_SIZE + 2] = 1 << (w - 1);
+        }
+        return starts;
+    }
+
+    // The number of codes from one value up to, but not including, another
+    private long countCodes(int from, int to) {
+        long count = 0;
+        for (int c = from; c < Math.min(to, codeCounts.length); c++) {
+            count += codeCounts[c];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the report as a few lines of text.
+     * @param name What to call the input in the first line.
+     * @return the report
+     */
+    public String report(String name) {
+        StringBuilder s = new StringBuilder();
+        double ratio = (textBytes == 0) ? 0 : 100.0 * inputBits / 8 / textBytes;
+        s.append(format("%s: %d bytes, %d member%s, %d text bytes (%.2f%%)%n", name, inputBits / 8, members,
+                (members == 1) ? "" : "s", textBytes, ratio));
+        for (String line : memberLines) {
+            s.append("  ").append(line).append(System.lineSeparator());
+        }
+        s.append(format("codes: %d, %d literals, %d from the table, %d clears, %.2f bytes per code, largest table %d%n",
+                codes, literals, codes - literals, clears, (codes == 0) ? 0 : (double) (textBytes - storedBytes) / codes,
+                largestTable));
+        s.append(format("bits: %d codes, %d headers, %d frames, %d checks, %d Huffman tables, %d index, %d stored, %d padding%n",
+                codeBits, headerBits, frameBits, checkBits, tableBits, indexBits, 8 * storedBytes, inputBits - spentBits()));
+        if (codedBlocks + storedBlocks > 0) {
+            s.append(format("blocks: %d coded, %d stored (%d bytes)%n", codedBlocks, storedBlocks, storedBytes));
+        }
+
+        s.append("widths:");
+        for (int w = 0; w <= MAX_WIDTH; w++) {
+            if (widthCounts[w] > 0) s.append(format(" %d:%d", w, widthCounts[w]));
+        }
+        s.append(System.lineSeparator()).append("match lengths:");
+        for (int b = 0; b < LENGTH_BUCKETS; b++) {
+            if (lengthCounts[b] == 0) continue;
+            if (b == 0) s.append(format(" 1:%d", lengthCounts[b]));
+            else s.append(format(" %d-%d:%d", 1L << b, (1L << (b + 1)) - 1, lengthCounts[b]));
+        }
+        int[] starts = codeRanges();
+        s.append(System.lineSeparator()).append("code ranges:");
+        for (int i = 0; i < starts.length; i++) {
+            int to = (i + 1 < starts.length) ? starts[i + 1] : 1 << maxCodeSize;
+            s.append(format(" %d-%d:%d", starts[i], to - 1, countCodes(starts[i], to)));
+        }
+        s.append(System.lineSeparator()).append("top codes:");
+        for (int c : topCodes()) {
+            s.append(format(" %s:%d", describe(c), codeCounts[c]));
+        }
+        s.append(System.lineSeparator());
+
+        s.append(format("regions of %d bytes:%n  %12s %10s %10s %8s %7s%n", regionSize, "from", "bytes", "bits/byte", "table", "clears"));
+        for (Region r : regions()) {
+            s.append(format("  %12d %10d %10.3f %8d %7d%n", r.start, r.text, (r.text == 0) ? 0 : (double) r.bits / r.text,
+                    r.table, r.clears));
+        }
+        return s.toString();
+    }
+
+    /**
+     * Returns the report as a single JSON object, for other tools to read.
+     * @param name What to call the input.
+     * @return the report
+     */
+    public String toJson(String name) {
+        StringBuilder s = new StringBuilder("{");
+        s.append(format("\"file\":\"%s\",\"bytes\":%d,\"members\":%d,\"textBytes\":%d,", escape(name), inputBits / 8, members, textBytes));
+        s.append(format("\"codes\":%d,\"literals\":%d,\"clears\":%d,\"largestTable\":%d,", codes, literals, clears, largestTable));
+        s.append(format("\"codedBlocks\":%d,\"storedBlocks\":%d,\"storedBytes\":%d,", codedBlocks, storedBlocks, storedBytes));
+        s.append(format("\"bits\":{\"codes\":%d,\"headers\":%d,\"frames\":%d,\"checks\":%d,\"huffmanTables\":%d,"
+                        + "\"index\":%d,\"stored\":%d,\"padding\":%d},",
+                codeBits, headerBits, frameBits, checkBits, tableBits, indexBits, 8 * storedBytes, inputBits - spentBits()));
+
+        s.append("\"widths\":{");
+        String comma = "";
+        for (int w = 0; w <= MAX_WIDTH; w++) {
+            if (widthCounts[w] == 0) continue;
+            s.append(format("%s\"%d\":%d", comma, w, widthCounts[w]));
+            comma = ",";
+        }
+        s.append("},\"matchLengths\":[");
+        comma = "";
+        for (int b = 0; b < LENGTH_BUCKETS; b++) {
+            if (lengthCounts[b] == 0) continue;
+            s.append(format("%s{\"from\":%d,\"to\":%d,\"count\":%d}", comma, 1L << b, (1L << (b + 1)) - 1, lengthCounts[b]));
+            comma = ",";
+        }
+        s.append("],\"codeRanges\":[");
+        int[] starts = codeRanges();
+        for (int i = 0; i < starts.length; i++) {
+            int to = (i + 1 < starts.length) ? starts[i + 1] : 1 << maxCodeSize;
+            s.append(format("%s{\"from\":%d,\"to\":%d,\"count\":%d}", (i == 0) ? "" : ",", starts[i], to - 1, countCodes(starts[i], to)));
+        }
+        s.append("],\"topCodes\":[");
+        comma = "";
+        for (int c : topCodes()) {
+            s.append(format("%s{\"code\":%d,\"name\":\"%s\",\"count\":%d}", comma, c, escape(describe(c)), codeCounts[c]));
+            comma = ",";
+        }
+        s.append(format("],\"regionSize\":%d,\"regions\":[", regionSize));
+        comma = "";
+        for (Region r : regions()) {
+            s.append(format("%s{\"from\":%d,\"bytes\":%d,\"bits\":%d,\"table\":%d,\"clears\":%d}", comma, r.start, r.text, r.bits,
+                    r.table, r.clears));
+            comma = ",";
+        }
+        return s.append("]}").toString();
+    }
+
+    private static String format(String format, Object... args) {
+        return String.format(Locale.ROOT, format, args);
+    }
+
+    // Escapes a string for a JSON string literal
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') escaped.append('\\').append(c);
+            else if (c < 0x20) escaped.append(format("\\u%04x", (int) c));
+            else escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
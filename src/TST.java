@@ -1,25 +1,32 @@
+import java.util.Arrays;
+
 /**
  * The {@code TST} class encodes a ternary search trie for use with LZW compression.
+ * It is the pointer-based implementation of {@code LZWDictionary}. Its words are byte
+ * strings, and each node branches on one unsigned byte, so any binary data can be stored.
  *
  * @author Zach Blick
  * @Credit: Robert Sedgewick
  *
  * @Date: Written lovingly in 2024 for Adventures in Algorithms at Menlo School in Atherton, CA.
  */
-public class TST {
+public class TST implements LZWDictionary {
 
     public static final int EMPTY = -1;
     private Node root;
+    // The node that ends the current match, or null if nothing has been matched yet
+    private Node match;
 
     /**
-     * Each Node contains its own charater, as well as references to its three children.
-     * If this Node's character is the terminus of a coded word, it will also contain
+     * Each Node contains its own byte, as well as references to its three children.
+     * If this Node's byte is the terminus of a coded word, it will also contain
      * the relevant code.
      */
     private class Node {
         Node left, mid, right;
-        char c;
-        int code;
+        // The byte, from 0 to 255, so that nodes are ordered by unsigned value
+        int c;
+        int code = EMPTY;
     }
 
     /**
@@ -27,12 +34,12 @@ public class TST {
      * @param s The word to insert.
      * @param code The code for the given word.
      */
-    public void insert(String s, int code) {
+    public void insert(byte[] s, int code) {
         root = insert(s, root, code, 0);
     }
 
-    public Node insert(String s, Node n, int code, int depth) {
-        char current = s.charAt(depth);
+    public Node insert(byte[] s, Node n, int code, int depth) {
+        int current = s[depth] & 0xff;
         if(n == null) {
             n = new Node();
             n.c = current;
@@ -41,61 +48,149 @@ public class TST {
             n.left = insert(s, n.left, code, depth);
         else if (current > n.c)
             n.right = insert(s, n.right, code, depth);
-        else if (depth < s.length() - 1) {
+        else if (depth < s.length - 1) {
             n.mid = insert(s, n.mid, code, depth + 1);
         }
         else n.code = code;
         return n;
     }
 
-    public String getLongestPrefix(String s) {
+    public byte[] getLongestPrefix(byte[] s) {
         return getLongestPrefix(s, 0);
     }
 
     /**
-     * Returns the longest prefix in the TST that matches the given substring of s starting at index start.
-     * @param s The target word, from which the substring is constructed.
-     * @param start The starting index of the substring.
-     * @return a String of all characters that match the given substring.
-     * If no characters match, the empty String is returned.
+     * Returns the longest prefix in the TST that matches the given part of s starting at index start.
+     * @param s The target word, from which the part is taken.
+     * @param start The starting index of the part.
+     * @return the bytes that match the given part.
+     * If no bytes match, an empty array is returned.
      */
-    public String getLongestPrefix(String s,  int start) {
-        return prefix(s, root, start, "");
+    public byte[] getLongestPrefix(byte[] s,  int start) {
+        return Arrays.copyOfRange(s, start, start + getLongestPrefixLength(s, start));
     }
 
-    private String prefix(String s, Node n, int depth, String prefix) {
-        if (n == null) return prefix;
+    /**
+     * Finds the longest prefix in the TST that matches the given part of s starting at index start,
+     * in a single pass and without copying any bytes. As with getLongestPrefix(), the prefix is the
+     * longest path in the trie, whether or not it ends at a word. The node it ends at is remembered,
+     * so its code can be read with code(), which is EMPTY if the prefix is not a word itself, and it
+     * can be extended with extend() without walking the trie again.
+     * @param s The target word, from which the part is taken.
+     * @param start The starting index of the part.
+     * @return the length of the longest matching prefix, or 0 if no bytes match.
+     */
+    public int getLongestPrefixLength(byte[] s, int start) {
+        reset();
+        int length = 0;
+        Node n = root;
+        while (start + length < s.length && n != null) {
+            int c = s[start + length] & 0xff;
+            if (c < n.c) n = n.left;
+            else if (c > n.c) n = n.right;
+            else {
+                match = n;
+                length++;
+                n = n.mid;
+            }
+        }
+        return length;
+    }
 
-        char current = s.charAt(depth);
-        if (current < n.c)
-            return prefix(s, n.left, depth, prefix);
-        else if (current > n.c)
-            return prefix(s, n.right, depth, prefix);
-        else if (depth < s.length() - 1)
-            return prefix(s, n.mid, depth + 1, prefix + current);
-        else return prefix + current;
+    /**
+     * Removes every word from the TST and forgets the current match.
+     */
+    public void clear() {
+        root = null;
+        match = null;
     }
 
+    /**
+     * Forgets the current match, so that the next call to advance() starts from the root.
+     */
+    public void reset() {
+        match = null;
+    }
+
+    /**
+     * Tries to extend the current match by one byte. Unlike getLongestPrefixLength(), this only
+     * follows words, so a walk of advance() calls stops at the first prefix that is not a word,
+     * even if longer words lie past it. The two agree on an LZW dictionary, where every prefix
+     * of a word is a word too.
+     * @param b The next byte.
+     * @return true if the current match plus b is a word in the TST, in which case it becomes the
+     * current match. Otherwise, the current match is left as it was and false is returned.
+     */
+    public boolean advance(byte b) {
+        int c = b & 0xff;
+        Node n = (match == null) ? root : match.mid;
+        while (n != null) {
+            if (c < n.c) n = n.left;
+            else if (c > n.c) n = n.right;
+            else if (n.code == EMPTY) return false;
+            else {
+                match = n;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the code of the current match.
+     * @return the code of the current match, or EMPTY if nothing has been matched.
+     */
+    public int code() {
+        return (match == null) ? EMPTY : match.code;
+    }
+
+    /**
+     * Inserts the current match plus one byte as a new word, by adding a single child to the
+     * matched node. The current match itself is left unchanged.
+     * @param b The byte to append to the current match.
+     * @param code The code for the new word.
+     */
+    public void extend(byte b, int code) {
+        int c = b & 0xff;
+        Node parent = match;
+        Node n = (parent == null) ? root : parent.mid;
+        // Find the link in the matched node's child tree where c belongs
+        Node last = null;
+        while (n != null && n.c != c) {
+            last = n;
+            n = (c < n.c) ? n.left : n.right;
+        }
+        if (n == null) {
+            n = new Node();
+            n.c = c;
+            if (last == null && parent == null) root = n;
+            else if (last == null) parent.mid = n;
+            else if (c < last.c) last.left = n;
+            else last.right = n;
+        }
+        // A string added again keeps its first code, since the strings that extend it hang off its node
+        if (n.code == EMPTY) n.code = code;
+    }
 
     /**
-     * Looks up the given String in the TST, returning the code associated with the word.
-     * @param s The target String
+     * Looks up the given word in the TST, returning the code associated with the word.
+     * @param s The target word
      * @return the correcponding code. If no code is associated, or if the target word is not
      * present, EMPTY is returned.
      */
-    public int lookup(String s) {
+    public int lookup(byte[] s) {
         return lookup(s, root, 0);
     }
 
-    public int lookup(String s, Node n, int depth) {
+    public int lookup(byte[] s, Node n, int depth) {
         if (n == null) return EMPTY;
 
-        char current = s.charAt(depth);
+        int current = s[depth] & 0xff;
         if (current < n.c)
             return lookup(s, n.left, depth);
         else if (current > n.c)
             return lookup(s, n.right, depth);
-        else if (depth < s.length() - 1)
+        else if (depth < s.length - 1)
             return lookup(s, n.mid, depth + 1);
         else return n.code;
 
@@ -114,7 +209,7 @@ public class TST {
         }
 
         // If this node ends a word, print it out!
-        s += n.c;
+        s += (char) n.c;
         if (n.code != EMPTY) System.out.println(s);
 
         printTST(n.left, s);
@@ -2,7 +2,43 @@
  *  Compilation:  javac TextCompressor.java
  *  Execution:    java TextCompressor - < input.txt   (compress)
  *  Execution:    java TextCompressor + < input.txt   (expand)
- *  Dependencies: BinaryIn.java BinaryOut.java
+ *  Execution:    java TextCompressor - input.txt output   (compress a file to a file)
+ *  Execution:    java TextCompressor train sample.txt dictionary   (train a shared dictionary)
+ *  Dependencies: BitInput.java BitOutput.java LZWDictionary.java HashDictionary.java TST.java
+ *                Compressor.java Decompressor.java
+ *                SharedDictionary.java CompressionStats.java CompressionEvent.java
+ *                CodeWriter.java CodeReader.java CodeListener.java HuffmanCodes.java Pipeline.java
+ *                BatchCompressor.java
+ *  Options:      --engine hash|tst   dictionary used by compress (default hash)
+ *                --bits n            widest code, from 9 to 20 (default 16)
+ *                --reset never|full|ratio   when to CLEAR a full table (default ratio)
+ *                --reset-threshold p   CLEAR once a window compresses p% worse than
+ *                                      the recent windows, or no smaller than its
+ *                                      text (default 10)
+ *                --block-size n      compress independent n-byte blocks in parallel
+ *                --threads n         blocks compressed or expanded at once (default: all cores)
+ *                --index             end the blocks with an index (1 MB blocks by default)
+ *                --dict file         start from a trained dictionary (needed again to expand)
+ *                --stats             print counts and timings to stderr, and publish them over JMX
+ *                --append            add to the end of the output file instead of replacing it
+ *                --lookahead n       try matches up to n bytes shorter for a better split
+ *                                    once the table is full (default 0; the gain is small:
+ *                                    0.1% on alice.txt at --bits 12, 1-2% on long text at 16)
+ *                --huffman           Huffman code the codes in blocks (smaller, a little slower)
+ *                --pipeline          read and write on threads of their own, overlapping I/O with coding
+ *  Execution:    java TextCompressor -|+ --batch out-dir input...
+ *                                    (code many files, directories or @lists into out-dir, largest first,
+ *                                     --threads at a time)
+ *  Execution:    java TextCompressor + --range from:to input [output]
+ *                                    (expand bytes [from, to) of an indexed file)
+ *  Checks:       every stream carries a CRC-32C of its text each MB and its length,
+ *                which expand() verifies as it goes, naming the bytes or block at fault
+ *  Stored:       with --block-size, a block that looks random from a sample of its bytes,
+ *                or that coding would not shrink, is stored as it is instead, so random
+ *                or already compressed input grows by only a few bytes per block
+ *  Members:      each compress() writes a self-contained member, so compressed
+ *                files can be concatenated (cat a.lzw b.lzw > c.lzw) or appended to
+ *                with --append, and expand() reads every member in turn
  *  Data files:   abra.txt
  *                jabberwocky.txt
  *                shakespeare.txt
@@ -12,18 +48,60 @@
  *  136 bits
  *
  *  % java TextCompressor - < abra.txt | java DumpBinary 0
- *  104 bits    (when using 8-bit codes)
+ *  256 bits    (40-bit header, then 9-bit codes, then a 96-bit checksum and length)
  *
  *  % java DumpBinary 0 < alice.txt
  *  1104064 bits
  *  % java TextCompressor - < alice.txt | java DumpBinary 0
- *  480760 bits
- *  = 43.54% compression ratio!
+ *  426928 bits (9 to 16-bit codes; 480760 bits with fixed 12-bit codes)
+ *  = 38.67% compression ratio!
  ******************************************************************************/
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32C;
+import jdk.jfr.FlightRecorder;
+
 /**
- *  The {@code TextCompressor} class provides static methods for compressing
- *  and expanding natural language through textfile input.
+ *  The {@code TextCompressor} class compresses and expands natural language
+ *  with LZW compression. It works on raw bytes throughout, so any binary input
+ *  expands back exactly too. Each instance holds its settings and a small pool
+ *  of working contexts. Every call to {@code compress()} or {@code expand()}
+ *  takes a context of its own from the pool, or makes one, and puts it back
+ *  when done, so one configured {@code TextCompressor} can run any number of
+ *  streams at once.
+ *  <p>
+ *  Up to POOL_SIZE contexts of each kind, one per core, stay alive between
+ *  calls. Each holds its tables at their largest: about 2 MB for codes of up
+ *  to MAX_POOLED_CODE_SIZE (16) bits with the hash engine. Contexts for wider
+ *  codes are not pooled but dropped when their stream ends, since at 20 bits a
+ *  compressor context takes about 25 MB and an expander about 10 MB.
+ *  <p>
+ *  Expanded text is checked against the stream's CRC-32C every CHECK_INTERVAL
+ *  (1 MB) of text and at its end. A single stream is written out as it is
+ *  decoded, so when a check fails, up to 1 MB of text before it has already
+ *  been written unverified, and may be wrong. The output is only known good
+ *  once expand() returns. Blocks are checked whole before any of their text
+ *  is written.
  *
  *  @author Zach Blick, Landon Moceri
  */
@@ -32,106 +110,1204 @@
 public class TextCompressor {
 
     // Constants
-    static final int CODE_SIZE = 12;
-    static final int MAX_CODE = 4096;
+    static final int MIN_CODE_SIZE = 9;
+    static final int MAX_CODE_SIZE = 20;
+    static final int DEFAULT_CODE_SIZE = 16;
+    static final int HEADER_SIZE = 8;
+    static final int STREAM_MAGIC = 0x4C5A;
+    static final int VERSION = 1;
+    static final int BLOCKS = 1;
+    static final int INDEX = 2;
+    static final int DICTIONARY = 4;
+    static final int HUFFMAN = 8;
+    static final int CHECKS = 16;
+    static final int CHECK_INTERVAL = 1 << 20;
+    static final int CHUNK_SIZE = 1 << 16;
+    static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    static final int MAX_POOLED_CODE_SIZE = 16;
+    static final int INDEX_MAGIC = 0x4C5A5749;
+    static final int FOOTER_BYTES = 16;
+    static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    static final int MAX_BLOCK_SIZE = 1 << 30;
+    // A coded frame takes at most a code of MAX_CODE_SIZE bits per byte of its block, plus as much
+    // again for CLEARs, checks and Huffman block headers, and FRAME_SLACK bytes for EOF and the trailer
+    static final int MAX_FRAME_GROWTH = (2 * MAX_CODE_SIZE + 7) / 8;
+    static final int FRAME_SLACK = 256;
+    static final int STORED_FRAME = 1 << 31;
+    static final int ENTROPY_SAMPLE_RUNS = 1024;
+    static final int ENTROPY_SAMPLE_RUN = 64;
+    static final int MIN_ENTROPY_SAMPLE = 1 << 12;
+    static final double STORED_ENTROPY = 7.8;
     static final int NUM_ASCII_CHARS = 256;
     static final int EOF = 256;
+    static final int CLEAR = 257;
+    static final int FIRST_CODE = 258;
+    static final int RATIO_WINDOW = 1 << 16;
+    // A window coded at this many bits per byte or more got nothing from the table
+    static final double INCOMPRESSIBLE_RATIO = 8;
+    // How many windows the "ratio" policy's baseline takes to drift most of the way up to a worse ratio
+    static final int BASELINE_WINDOWS = 4;
+    static final int INPUT_BUFFER_SIZE = 1 << 18;
+    static final int INPUT_MARGIN = 1 << 16;
+    static final int LOOKAHEAD_GAIN = 3;
 
-    // Compresses text input using LZW compression
-    private static void compress() {
-        // Initialize a TST to facilitate string to code translations
-        TST tst = new TST();
-        // Add all the ASCII characters to the TST
-        for (int i = 0; i < NUM_ASCII_CHARS; i++) {
-            tst.insert("" + (char) i, i);
-        }
-        // Initialize the code to be the first available code after ASCII and EOF
-        int code = NUM_ASCII_CHARS + 1;
-
-        // Read the input as a string
-        String input = BinaryStdIn.readString();
-        // Loop through each character in the input
-        int index = 0;
-        while (index < input.length()) {
-            // Get the longest prefix in the TST that matches the current substring
-            String prefix = tst.getLongestPrefix(input, index);
-            // Get the code for the prefix
-            int local_code = tst.lookup(prefix);
-
-            // Write the code to the output
-            BinaryStdOut.write(local_code, CODE_SIZE);
-            // Add the next character to the TST
-            int prefixLength = prefix.length();
-            if (index + prefixLength < input.length() && code < MAX_CODE) {
-                tst.insert(input.substring(index, index + prefixLength + 1), code);
-                // Increment the code
-                code++;
+    // The widest code compress() may write, recorded in the stream header for expand()
+    private int maxCodeSize = DEFAULT_CODE_SIZE;
+    // When compress() sends CLEAR once the table is full: "never", "full" or "ratio"
+    private String resetPolicy = "ratio";
+    // For the "ratio" policy, how many percent worse than the recent windows a window may compress before a CLEAR
+    private int resetThreshold = 10;
+
+    // The dictionary engine used by compress(), either "hash" or "tst"
+    private String engine = "hash";
+    // The number of input bytes compressed independently in each block, or 0 for a single stream
+    private int blockSize = 0;
+    // The number of blocks compressed or expanded at once
+    private int threads = Runtime.getRuntime().availableProcessors();
+    // Whether block output ends with an index for expanding byte ranges
+    private boolean indexed = false;
+    // How many bytes shorter than the longest match compress() tries, or 0 to always take the longest
+    private int lookahead = 0;
+    // The trained dictionary loaded before the first code, or null to start from single characters
+    private SharedDictionary shared = null;
+    // Where to add counts of codes, bytes and time, or null to keep none
+    private CompressionStats stats = null;
+    // Whether compress() writes its codes with a Huffman code instead of at a fixed width
+    private boolean huffman = false;
+
+    // Contexts left over from earlier streams, for the next ones to reuse instead of allocating their own.
+    // A stream takes one out while it runs and puts it back when done, unless the pool is full or the
+    // context's tables are wider than MAX_POOLED_CODE_SIZE bits
+    private final Queue<Compressor> compressors = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final Queue<Decompressor> decompressors = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // A block of compressed bytes along with the length of the input it came from. A stored block
+    // holds the input as it is, followed by its CRC-32C
+    private static class Frame {
+        int length;
+        byte[] bytes;
+        boolean stored;
+
+        Frame(int length, byte[] bytes, boolean stored) {
+            this.length = length;
+            this.bytes = bytes;
+            this.stored = stored;
+        }
+    }
+
+    // What a member's header says about how to expand it
+    static class Header {
+        // The stream version, from 1 to VERSION
+        int version;
+        int flags;
+        int codeSize;
+        SharedDictionary dictionary;
+
+        boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    /**
+     * Sets the dictionary engine used by compress().
+     * @param engine Either "hash" or "tst".
+     * @return this TextCompressor
+     */
+    public TextCompressor setEngine(String engine) {
+        if (!engine.equals("hash") && !engine.equals("tst")) {
+            throw new IllegalArgumentException("Unknown dictionary engine: " + engine);
+        }
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * Sets the widest code compress() may write.
+     * @param maxCodeSize The width in bits, from 9 to 20.
+     * @return this TextCompressor
+     */
+    public TextCompressor setMaxCodeSize(int maxCodeSize) {
+        if (maxCodeSize < MIN_CODE_SIZE || maxCodeSize > MAX_CODE_SIZE) {
+            throw new IllegalArgumentException("Illegal code size = " + maxCodeSize);
+        }
+        this.maxCodeSize = maxCodeSize;
+        return this;
+    }
+
+    /**
+     * Sets when compress() clears a full table: "never", "full" (right away) or "ratio"
+     * (once the output starts to compress worse than the reset threshold allows, or a window
+     * of it is no smaller than its text).
+     * @param resetPolicy The name of the policy.
+     * @return this TextCompressor
+     */
+    public TextCompressor setResetPolicy(String resetPolicy) {
+        if (!resetPolicy.equals("never") && !resetPolicy.equals("full") && !resetPolicy.equals("ratio")) {
+            throw new IllegalArgumentException("Unknown reset policy: " + resetPolicy);
+        }
+        this.resetPolicy = resetPolicy;
+        return this;
+    }
+
+    /**
+     * Sets how many percent worse than the recent windows a window may compress before the "ratio" policy clears the table.
+     * @param resetThreshold The threshold in percent.
+     * @return this TextCompressor
+     */
+    public TextCompressor setResetThreshold(int resetThreshold) {
+        if (resetThreshold < 0) throw new IllegalArgumentException("Illegal reset threshold = " + resetThreshold);
+        this.resetThreshold = resetThreshold;
+        return this;
+    }
+
+    /**
+     * Splits the input into blocks of the given size that are compressed independently and in
+     * parallel, and written to the output as frames. Expanding them is done in parallel too.
+     * A single stream has no blocks to index, so it cannot be chosen while indexing is on.
+     * @param blockSize The number of input bytes in each block, up to MAX_BLOCK_SIZE, or 0 to compress a single stream.
+     * @return this TextCompressor
+     */
+    public TextCompressor setBlockSize(int blockSize) {
+        if (blockSize < 0 || blockSize > MAX_BLOCK_SIZE) throw new IllegalArgumentException("Illegal block size = " + blockSize);
+        if (blockSize == 0 && indexed) throw new IllegalArgumentException("An index needs a block size above 0");
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Sets how many blocks are compressed or expanded at once.
+     * @param threads The number of worker threads.
+     * @return this TextCompressor
+     */
+    public TextCompressor setThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Illegal number of threads = " + threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets whether block output ends with an index of where each block starts, in both the
+     * input and the output, so that a byte range can be expanded without reading the rest.
+     * Indexing needs blocks, so it turns them on with a 1 MB block size if they are not on yet.
+     * @param indexed Whether to write the index.
+     * @return this TextCompressor
+     */
+    public TextCompressor setIndexed(boolean indexed) {
+        this.indexed = indexed;
+        if (indexed && blockSize == 0) blockSize = DEFAULT_BLOCK_SIZE;
+        return this;
+    }
+
+    /**
+     * Turns on flexible parsing: once the table is full, at every match compress() also tries matches
+     * up to the given number of bytes shorter, and takes the one that lets the match after it reach
+     * furthest. While the table is still filling, it always takes the longest match, since a shorter
+     * one would spend a code on a string the dictionary already has. This writes fewer codes for the
+     * same table size at the cost of walking the dictionary a few more times per code, and the output
+     * is an ordinary stream that expand() reads as usual.
+     * @param lookahead How many shorter matches to try, or 0 to always take the longest match.
+     * @return this TextCompressor
+     */
+    public TextCompressor setLookahead(int lookahead) {
+        if (lookahead < 0) throw new IllegalArgumentException("Illegal lookahead = " + lookahead);
+        this.lookahead = lookahead;
+        return this;
+    }
+
+    /**
+     * Sets whether compress() entropy codes its output: the codes are written in blocks, each with a
+     * canonical Huffman code built for it, instead of each at the width of the largest code so far.
+     * This makes the output smaller at some cost in speed, and expand() reads either kind of stream.
+     * @param huffman Whether to Huffman code the codes.
+     * @return this TextCompressor
+     */
+    public TextCompressor setHuffman(boolean huffman) {
+        this.huffman = huffman;
+        return this;
+    }
+
+    /**
+     * Sets a trained dictionary that compress() loads before the first code and after every CLEAR.
+     * Streams compressed with it record its id, and expand() needs the same dictionary to read them.
+     * @param shared The dictionary, or null to start from the single characters alone.
+     * @return this TextCompressor
+     */
+    public TextCompressor setDictionary(SharedDictionary shared) {
+        this.shared = shared;
+        return this;
+    }
+
+    /**
+     * Sets the stats that compress() and expand() add their counts to, along with the time their
+     * input and output spend reading and writing.
+     * @param stats The stats, or null to keep none.
+     * @return this TextCompressor
+     */
+    public TextCompressor setStats(CompressionStats stats) {
+        this.stats = stats;
+        return this;
+    }
+
+    // Takes a compressor context for the current settings from the pool, or makes one if there is none
+    private Compressor acquireCompressor() {
+        Compressor context = compressors.poll();
+        if (context == null || !context.matches(engine, maxCodeSize, shared)) {
+            context = new Compressor(engine, maxCodeSize, shared);
+        }
+        return context;
+    }
+
+    // Takes an expander context from the pool, or makes one if there is none
+    private Decompressor acquireDecompressor() {
+        Decompressor context = decompressors.poll();
+        return (context != null) ? context : new Decompressor();
+    }
+
+    // Puts a compressor context back in the pool, unless its tables are too large to keep around
+    private void release(Compressor context) {
+        if (context.maxCodeSize <= MAX_POOLED_CODE_SIZE) compressors.offer(context);
+    }
+
+    // Puts an expander context back in the pool, unless its tables are too large to keep around
+    private void release(Decompressor context) {
+        if (context.prefix.length <= 1 << MAX_POOLED_CODE_SIZE) decompressors.offer(context);
+    }
+
+    // Returns the first code after the single characters, EOF, CLEAR and the shared dictionary
+    static int firstCode(SharedDictionary shared) {
+        return FIRST_CODE + (shared == null ? 0 : shared.size());
+    }
+
+    // Returns the number of bits needed to write any code below next. Codes start out 9 bits wide
+    // and widen by one bit each time the next code to be added passes a power of two
+    static int codeSize(int next) {
+        return Math.max(MIN_CODE_SIZE, 32 - Integer.numberOfLeadingZeros(next - 1));
+    }
+
+    /**
+     * Compresses the input stream to the output stream. Neither stream is closed.
+     * @param in The text to compress.
+     * @param out Where to write the compressed bits.
+     */
+    public void compress(InputStream in, OutputStream out) {
+        compress(new BitInput(in), new BitOutput(out));
+    }
+
+    /**
+     * Expands the compressed input stream to the output stream. Neither stream is closed.
+     * @param in The compressed bits.
+     * @param out Where to write the original text.
+     */
+    public void expand(InputStream in, OutputStream out) {
+        expand(new BitInput(in), new BitOutput(out));
+    }
+
+    /**
+     * Compresses an array of bytes.
+     * @param input The bytes to compress.
+     * @return the compressed bytes
+     */
+    public byte[] compress(byte[] input) {
+        // The context's own output is reused too, so the only thing allocated is the array returned
+        Compressor context = acquireCompressor();
+        compress(new BitInput(ByteBuffer.wrap(input)), context.output(), context);
+        byte[] compressed = context.bytes();
+        release(context);
+        return compressed;
+    }
+
+    /**
+     * Expands an array of compressed bytes.
+     * @param compressed The compressed bytes.
+     * @return the original bytes
+     */
+    public byte[] expand(byte[] compressed) {
+        Decompressor context = acquireDecompressor();
+        expand(new BitInput(ByteBuffer.wrap(compressed)), context.output(), context);
+        byte[] expanded = context.bytes();
+        release(context);
+        return expanded;
+    }
+
+    /**
+     * Compresses text input using LZW compression. The output starts with a header holding a magic
+     * number, the format version, the flags and the widest code, followed by either a single stream
+     * of codes or a series of frames. Every stream of codes carries a CRC-32C of its text every
+     * CHECK_INTERVAL bytes, and ends with one for the rest of its text and the text's length, which
+     * expand() checks as it goes.
+     * The output is flushed, but not closed, when done, and it ends on a byte boundary. That makes
+     * the output a self-contained member: calling compress() again on the same output, or appending
+     * to a file that already holds members, adds another one, and expand() reads them all in turn.
+     * @param in The text to compress.
+     * @param out Where to write the compressed bits.
+     */
+    public void compress(BitInput in, BitOutput out) {
+        Compressor context = acquireCompressor();
+        compress(in, out, context);
+        release(context);
+    }
+
+    // Compresses a member, coding a single stream in the given context
+    private void compress(BitInput in, BitOutput out, Compressor context) {
+        if (firstCode(shared) >= 1 << maxCodeSize) {
+            throw new IllegalArgumentException("Dictionary of " + shared.size() + " strings leaves no room for "
+                    + maxCodeSize + "-bit codes");
+        }
+        long start = startTiming(in, out);
+        try {
+            int flags = (blockSize > 0 ? BLOCKS : 0) | (indexed ? INDEX : 0) | (shared != null ? DICTIONARY : 0)
+                    | (huffman ? HUFFMAN : 0) | CHECKS;
+            out.write(STREAM_MAGIC, 2 * HEADER_SIZE);
+            out.write(VERSION, HEADER_SIZE);
+            out.write(flags, HEADER_SIZE);
+            out.write(maxCodeSize, HEADER_SIZE);
+            if (shared != null) out.write(shared.id());
+            if (blockSize > 0) compressBlocks(in, out);
+            else {
+                CompressionEvent event = FlightRecorder.isInitialized() ? CompressionEvent.start() : null;
+                encode(in, out, context);
+                record(event, "compress", context);
             }
-            // Move the index to the next character
-            index += prefixLength;
+            out.flush();
+        }
+        finally {
+            stopTiming(in, out, start);
         }
-        // Write EOF to the output and close the output
-        BinaryStdOut.write(EOF, CODE_SIZE);
-        BinaryStdOut.close();
     }
 
-    // Expands LZW compressed text back to its original form
-    private static void expand() {
-        // Create a map from codes to strings
-        String[] codeToString = new String[1 << CODE_SIZE];
-        // Fill it with the ASCII characters
-        for (int i = 0; i < NUM_ASCII_CHARS; i++) {
-            codeToString[i] = "" + (char) i;
+    /**
+     * Expands LZW compressed text back to its original form. The input may hold any number of
+     * members, each written by one call to compress(), one after another; they are expanded in
+     * order, as one continuous text. The output is flushed, but not closed, when done.
+     * @param in The compressed bits.
+     * @param out Where to write the original text.
+     */
+    public void expand(BitInput in, BitOutput out) {
+        Decompressor context = acquireDecompressor();
+        expand(in, out, context);
+        release(context);
+    }
+
+    // Expands every member, decoding single streams in the given context
+    private void expand(BitInput in, BitOutput out, Decompressor context) {
+        long start = startTiming(in, out);
+        try {
+            // Every member ends on a byte boundary, so skip its padding and look for the next one
+            do {
+                expandMember(in, out, context);
+                in.align();
+            } while (!in.isEmpty());
+            out.flush();
         }
+        finally {
+            stopTiming(in, out, start);
+        }
+    }
 
-        // Initialize the code to be the first available code after ASCII and EOF
-        int code = NUM_ASCII_CHARS + 1;
+    // Expands a single member, from its header up to the end of its codes or frames
+    private void expandMember(BitInput in, BitOutput out, Decompressor context) {
+        Header header = readHeader(in);
+        if (header.has(BLOCKS)) expandBlocks(in, out, header);
+        else decode(in, out, header, 0, context, null);
+    }
+
+    // Reads a member's header, which must start with the magic number
+    Header readHeader(BitInput in) {
+        Header header = new Header();
+        if (in.readInt(2 * HEADER_SIZE) != STREAM_MAGIC) throw new IllegalStateException("Not a compressed stream");
+        int version = in.readInt(HEADER_SIZE);
+        if (version < 1 || version > VERSION) throw new IllegalStateException("Unsupported stream version = " + version);
+        header.version = version;
+        header.flags = in.readInt(HEADER_SIZE);
+        if ((header.flags & ~(BLOCKS | INDEX | DICTIONARY | HUFFMAN | CHECKS)) != 0) {
+            throw new IllegalStateException("Unknown flags in header = " + header.flags);
+        }
+        // Then the widest code and the shared dictionary's id
+        header.codeSize = in.readInt(HEADER_SIZE);
+        if (header.codeSize < MIN_CODE_SIZE || header.codeSize > MAX_CODE_SIZE) {
+            throw new IllegalStateException("Illegal code size in header = " + header.codeSize);
+        }
+        if (header.has(DICTIONARY)) header.dictionary = sharedDictionary(in.readInt(), header.codeSize);
+        return header;
+    }
+
+    // Starts timing a call, and has its input and output time their reads and writes, if there are stats
+    private long startTiming(BitInput in, BitOutput out) {
+        if (stats == null) return 0;
+        if (in != null) in.setStats(stats);
+        out.setStats(stats);
+        return System.nanoTime();
+    }
+
+    // Adds the time since startTiming() to the stats, if there are any, and stops the input and output timing
+    private void stopTiming(BitInput in, BitOutput out, long start) {
+        if (stats == null) return;
+        if (in != null) in.setStats(null);
+        out.setStats(null);
+        stats.addElapsed(System.nanoTime() - start);
+    }
 
-        // Read the first code from the input
-        int current_base = BinaryStdIn.readInt(CODE_SIZE);
-        // If the input is EOF, we're done
-        if (current_base == EOF)
-        {
+    // Returns the shared dictionary a stream was compressed with, given the id in its header
+    private SharedDictionary sharedDictionary(int id, int headerCodeSize) {
+        if (shared == null || shared.id() != id) {
+            throw new IllegalStateException("Stream needs dictionary " + Integer.toHexString(id));
+        }
+        if (firstCode(shared) >= 1 << headerCodeSize) {
+            throw new IllegalStateException("Dictionary is too large for " + headerCodeSize + "-bit codes");
+        }
+        return shared;
+    }
+
+    // Reads the input in blocks and compresses them on a pool of threads. Each one is written out as a
+    // frame holding its input length, its compressed length and its codes, in input order, and an
+    // empty frame marks the end. Only a couple of blocks per thread are ever held in memory at once
+    private void compressBlocks(BitInput in, BitOutput out) {
+        BlockIndex index = new BlockIndex(5 * HEADER_SIZE / 8 + (shared != null ? 4 : 0));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Deque<ForkJoinTask<Frame>> pending = new ArrayDeque<>();
+            while (true) {
+                byte[] block = new byte[blockSize];
+                int length = in.readBytes(block, 0, blockSize);
+                if (length == 0) break;
+                pending.add(pool.submit(() -> compressBlock(block, length)));
+                if (pending.size() >= 2 * threads) index.add(pending.remove().join(), out);
+            }
+            while (!pending.isEmpty()) index.add(pending.remove().join(), out);
+            writeFrame(out, new Frame(0, new byte[0], false));
+        }
+        finally {
+            pool.shutdown();
+        }
+        if (indexed) index.write(out);
+    }
+
+    // Where each block starts in the input and in the output, counting from the start of the header
+    private static class BlockIndex {
+        long[] offsets = new long[64];
+        int blocks;
+        long inputOffset;
+        long outputOffset;
+
+        BlockIndex(long headerBytes) {
+            outputOffset = headerBytes;
+        }
+
+        // Writes out the next frame, and records where it starts
+        void add(Frame frame, BitOutput out) {
+            if (2 * blocks == offsets.length) offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            offsets[2 * blocks] = inputOffset;
+            offsets[2 * blocks + 1] = outputOffset;
+            blocks++;
+            inputOffset += frame.length;
+            outputOffset += writeFrame(out, frame);
+        }
+
+        // The index trailer follows the empty frame. It lists both offsets of every block, and ends with
+        // a fixed size footer so that it can be found by reading backwards from the end of the output
+        void write(BitOutput out) {
+            for (int i = 0; i < 2 * blocks; i++) {
+                out.write(offsets[i]);
+            }
+            out.write(outputOffset + 8);
+            out.write(blocks);
+            out.write(INDEX_MAGIC);
+        }
+    }
+
+    // Compresses one block on its own, with a fresh dictionary, unless storing it as it is would be
+    // no larger. A block that looks random from a sample of its bytes is stored without coding it at all.
+    // Either way, the stats count the frame that is written, not codes that were thrown away
+    private Frame compressBlock(byte[] block, int length) {
+        CompressionEvent event = FlightRecorder.isInitialized() ? CompressionEvent.start() : null;
+        if (!looksRandom(block, length)) {
+            Compressor context = acquireCompressor();
+            BitOutput out = context.output();
+            encode(new BitInput(ByteBuffer.wrap(block, 0, length)), out, context);
+            out.flush();
+            byte[] compressed = context.bytes();
+            boolean kept = compressed.length < length + 4;
+            if (kept) record(event, "compress", context);
+            release(context);
+            if (kept) return new Frame(length, compressed, false);
+        }
+        byte[] stored = Arrays.copyOf(block, length + 4);
+        CRC32C crc = new CRC32C();
+        crc.update(block, 0, length);
+        ByteBuffer.wrap(stored).putInt(length, (int) crc.getValue());
+        record(event, "compress", length, 8L * stored.length, 0, 0, 0);
+        return new Frame(length, stored, true);
+    }
+
+    // Estimates the entropy of a block from the counts of its bytes in ENTROPY_SAMPLE_RUNS runs spread
+    // across it, and returns true if it is so close to 8 bits per byte that LZW could not shrink it.
+    // LZW finds repeated strings rather than skewed bytes, so this only says no; a block it passes
+    // is still stored if its codes come out no smaller
+    private static boolean looksRandom(byte[] block, int length) {
+        if (length < MIN_ENTROPY_SAMPLE) return false;
+        int[] counts = new int[NUM_ASCII_CHARS];
+        int runs = Math.min(ENTROPY_SAMPLE_RUNS, length / ENTROPY_SAMPLE_RUN);
+        long stride = length / runs;
+        for (int i = 0; i < runs; i++) {
+            int start = (int) (i * stride);
+            for (int j = start; j < start + ENTROPY_SAMPLE_RUN; j++) {
+                counts[block[j] & 0xff]++;
+            }
+        }
+        double total = runs * ENTROPY_SAMPLE_RUN;
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) entropy -= count / total * Math.log(count / total);
+        }
+        return entropy / Math.log(2) >= STORED_ENTROPY;
+    }
+
+    // Writes a frame, returning the number of bytes it takes up. The top bit of its compressed length
+    // marks a stored block
+    private static int writeFrame(BitOutput out, Frame frame) {
+        out.write(frame.length);
+        out.write(frame.bytes.length | (frame.stored ? STORED_FRAME : 0));
+        out.write(frame.bytes, 0, frame.bytes.length);
+        return 8 + frame.bytes.length;
+    }
+
+    // Reads the frames written by compressBlocks() and expands them on a pool of threads,
+    // writing out each block in order as soon as it and every block before it are done
+    private void expandBlocks(BitInput in, BitOutput out, Header header) {
+        int blocks = 0;
+        long offset = 0;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+            for (;; blocks++) {
+                int length = in.readInt();
+                int compressedLength = in.readInt();
+                if (length == 0) break;
+                boolean stored = (compressedLength & STORED_FRAME) != 0;
+                compressedLength &= ~STORED_FRAME;
+                if (!isLegalFrame(length, compressedLength, stored)) {
+                    throw new IllegalStateException("Illegal frame header for block " + blocks + " at byte " + offset);
+                }
+                byte[] block = new byte[compressedLength];
+                if (in.readBytes(block, 0, compressedLength) < compressedLength) {
+                    throw new IllegalStateException("Frame of block " + blocks + " at byte " + offset + " is cut short");
+                }
+                int number = blocks;
+                long blockOffset = offset;
+                pending.add(pool.submit(() -> expandBlock(block, length, stored, header, number, blockOffset)));
+                offset += length;
+                if (pending.size() >= 2 * threads) {
+                    byte[] expanded = join(pending.remove());
+                    out.write(expanded, 0, expanded.length);
+                }
+            }
+            while (!pending.isEmpty()) {
+                byte[] expanded = join(pending.remove());
+                out.write(expanded, 0, expanded.length);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        if (header.has(INDEX)) {
+            // Skip over the index trailer, which is only needed for expanding ranges
+            for (int i = 0; i < 2 * blocks + 1; i++) {
+                in.readLong();
+            }
+            if (in.readInt() != blocks || in.readInt() != INDEX_MAGIC) {
+                throw new IllegalStateException("Index does not match the frames before it");
+            }
+        }
+    }
+
+    // Returns whether a frame header, past its stored bit, could have been written by compressBlocks(): no more
+    // than MAX_BLOCK_SIZE bytes of text, and a stored frame's text and checksum or no more codes than the text
+    // could ever take. Frames are checked before anything is allocated for them, so a corrupt header is
+    // reported as such rather than running out of memory
+    static boolean isLegalFrame(int length, int compressedLength, boolean stored) {
+        if (length < 0 || length > MAX_BLOCK_SIZE) return false;
+        if (stored) return compressedLength == length + 4;
+        return compressedLength <= (long) length * MAX_FRAME_GROWTH + FRAME_SLACK;
+    }
+
+    // Waits for a block to be done, rethrowing anything that went wrong with it as it was thrown,
+    // rather than wrapped in a copy the way join() does
+    private static <T> T join(ForkJoinTask<T> task) {
+        try {
+            return task.join();
+        }
+        catch (RuntimeException e) {
+            if (e.getCause() != null && e.getCause().getClass() == e.getClass()) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Expands only the bytes from index from (inclusive) to index to (exclusive) of the original
+     * text, from a file written with an index. The index is read from the end of the file, and
+     * only the blocks that overlap the range are read and expanded. If the file holds several
+     * members, the range is in the text of the last one, which must be the indexed one.
+     * @param file The compressed file, which must end with an indexed stream.
+     * @param from The offset in the original text of the first byte to expand.
+     * @param to The offset in the original text just past the last byte to expand.
+     * @param out Where to write the expanded bytes. It is flushed, but not closed, when done.
+     * @throws IOException if the file cannot be read
+     */
+    public void expand(FileChannel file, long from, long to, BitOutput out) throws IOException {
+        if (from < 0 || to < from) throw new IllegalArgumentException("Illegal range " + from + " to " + to);
+        long begin = startTiming(null, out);
+        try {
+            expandRange(file, from, to, out);
+        }
+        finally {
+            stopTiming(null, out, begin);
+        }
+    }
+
+    // Expands the range for expand(FileChannel, long, long, BitOutput)
+    private void expandRange(FileChannel file, long from, long to, BitOutput out) throws IOException {
+        // Find the start of the stream from the footer at the end of the file
+        ByteBuffer footer = readFully(file, file.size() - FOOTER_BYTES, FOOTER_BYTES);
+        long indexOffset = footer.getLong();
+        int blocks = footer.getInt();
+        if (footer.getInt() != INDEX_MAGIC) throw new IllegalStateException("File does not end with an index");
+        long start = file.size() - FOOTER_BYTES - 16L * blocks - indexOffset;
+        if (start < 0) throw new IllegalStateException("Index does not match its stream");
+        Header header = readHeader(new BitInput(readFully(file, start, 5 * HEADER_SIZE / 8 + 4)));
+        if (!header.has(INDEX)) throw new IllegalStateException("Index does not match its stream");
+
+        // Binary search the index for the last block that starts at or before from
+        ByteBuffer index = readFully(file, start + indexOffset, 16 * blocks);
+        int lo = 0;
+        int hi = blocks - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (index.getLong(16 * mid) <= from) lo = mid;
+            else hi = mid - 1;
+        }
+
+        // Expand each block that overlaps the range, and write out the part of it that is inside
+        for (int i = lo; i < blocks && index.getLong(16 * i) < to; i++) {
+            long blockStart = index.getLong(16 * i);
+            ByteBuffer frame = readFully(file, start + index.getLong(16 * i + 8), 8);
+            int length = frame.getInt();
+            int compressedLength = frame.getInt();
+            boolean stored = (compressedLength & STORED_FRAME) != 0;
+            compressedLength &= ~STORED_FRAME;
+            if (length == 0 || !isLegalFrame(length, compressedLength, stored)) {
+                throw new IllegalStateException("Illegal frame header for block " + i + " at byte " + blockStart);
+            }
+            byte[] block = readFully(file, start + index.getLong(16 * i + 8) + 8, compressedLength).array();
+            byte[] expanded = expandBlock(block, length, stored, header, i, blockStart);
+            int begin = (int) Math.max(0, from - blockStart);
+            int end = (int) Math.min(length, to - blockStart);
+            if (begin < end) out.write(expanded, begin, end - begin);
+        }
+        out.flush();
+    }
+
+    // Reads exactly length bytes of the file starting at position
+    private static ByteBuffer readFully(FileChannel file, long position, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (file.read(bytes, position + bytes.position()) < 0) {
+                throw new IllegalStateException("File is cut short");
+            }
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    // Expands one frame's codes into an array of its input length, or checks and copies out a stored
+    // frame's bytes. Any problem with them is reported along with which block it is, and at offsets in the whole text
+    private byte[] expandBlock(byte[] block, int length, boolean stored, Header header, int number, long offset) {
+        ByteBuffer expanded = ByteBuffer.allocate(length);
+        BitOutput out = new BitOutput(expanded);
+        try {
+            if (stored) {
+                CompressionEvent event = FlightRecorder.isInitialized() ? CompressionEvent.start() : null;
+                if (block.length != length + 4) throw new IllegalStateException("Stored frame does not match its length");
+                CRC32C crc = new CRC32C();
+                crc.update(block, 0, length);
+                verify(ByteBuffer.wrap(block).getInt(length), crc, offset, offset + length);
+                record(event, "expand", length, 8L * block.length, 0, 0, 0);
+                return Arrays.copyOf(block, length);
+            }
+            Decompressor context = acquireDecompressor();
+            decode(new BitInput(ByteBuffer.wrap(block)), out, header, offset, context, null);
+            release(context);
+            out.flush();
+            if (expanded.hasRemaining()) throw new IllegalStateException("Frame expands to fewer bytes than its length");
+        }
+        catch (IllegalStateException | BufferOverflowException e) {
+            String problem = (e instanceof BufferOverflowException) ? "Frame expands to more bytes than its length" : e.getMessage();
+            throw new IllegalStateException("Block " + number + ": " + problem, e);
+        }
+        return expanded.array();
+    }
+
+    // Compresses the input as a single stream of codes, streaming it one chunk of bytes at a time
+    // so that only the current chunk and match (never the whole input) are held in memory
+    private void encode(BitInput in, BitOutput out, Compressor context) {
+        // The codes go out through a writer, either as they are or Huffman coded
+        CodeWriter writer = context.writer(out, huffman);
+        // Initialize a dictionary to facilitate string to code translations
+        LZWDictionary dictionary = context.dictionary;
+        context.initialize();
+        // Initialize the code to be the first available code after ASCII, EOF, CLEAR and the shared dictionary
+        int base = firstCode(shared);
+        int code = base;
+        int maxCode = 1 << maxCodeSize;
+
+        // Once the table is full, track how well each window of input compresses, for the "ratio" policy.
+        // Windows are measured in fixed-width bits even when Huffman coding, which is close enough to
+        // tell when the table has gone stale
+        int windowChars = 0;
+        long windowBits = 0;
+        double baseline = 0;
+        boolean ratioDropped = false;
+
+        // Counts for the stats, kept in locals so that they cost next to nothing when no one reads them,
+        // and handed to the context at the end for the caller to record
+        long textBytes = 0;
+        long codes = 0;
+        long clears = 0;
+        int tableSize = code;
+
+        // A CRC-32C of the text since the last check, and where it is up to in the buffer
+        CRC32C crc = context.crc;
+        crc.reset();
+        int checked = 0;
+        long nextCheck = CHECK_INTERVAL;
+
+        // The input is read into a buffer of raw bytes, which is topped up whenever fewer than
+        // INPUT_MARGIN bytes are left past the current position, so every match can see what follows it
+        byte[] buffer = context.buffer;
+        int end = in.readBytes(buffer, 0, INPUT_BUFFER_SIZE);
+        boolean more = (end == INPUT_BUFFER_SIZE);
+        int position = 0;
+        // An empty input compresses to just EOF
+        if (end == 0) {
+            writer.write(EOF, code);
+            writeTrailer(writer, crc, 0);
+            context.count(0, writer.bits(), 0, 0, tableSize);
             return;
         }
-        // Get the string for the first code
-        String current_string = codeToString[current_base];
 
         while (true) {
-            // Write the current string to the output
-            BinaryStdOut.write(current_string);
-            // Get the next base, handle EOF, and get the next string
-            int next_base = BinaryStdIn.readInt(CODE_SIZE);
-            if (next_base == EOF) {
+            if (more && end - position < INPUT_MARGIN) {
+                // Move what is left to the front of the buffer and fill the rest from the input,
+                // once the bytes before it have gone into the checksum
+                crc.update(buffer, checked, position - checked);
+                checked = 0;
+                System.arraycopy(buffer, position, buffer, 0, end - position);
+                end -= position;
+                position = 0;
+                int count = in.readBytes(buffer, end, INPUT_BUFFER_SIZE - end);
+                more = (count == INPUT_BUFFER_SIZE - end);
+                end += count;
+            }
+            // Until the input runs out, a match stops short of the end of the buffer,
+            // so the byte after it is always there to add to the dictionary
+            int limit = more ? end - 1 : end;
+            // Walk the dictionary as far as it knows the input, or once the table is full, look ahead for a better split
+            int length = longestMatch(dictionary, buffer, position, limit);
+            if (lookahead > 0 && code == maxCode && position + length < limit) {
+                length = flexibleMatch(dictionary, buffer, position, limit, length);
+            }
+            // Write out the match's code, which like every code written so far is below the next one to add
+            int size = codeSize(code);
+            writer.write(dictionary.code(), code);
+            windowBits += size;
+            windowChars += length;
+            position += length;
+            if (textBytes + windowChars >= nextCheck) {
+                // Every CHECK_INTERVAL bytes of text, at the end of a match, write a checksum of the text since the last one
+                crc.update(buffer, checked, position - checked);
+                checked = position;
+                writer.writeWord((int) crc.getValue());
+                crc.reset();
+                nextCheck = textBytes + windowChars + CHECK_INTERVAL;
+            }
+            if (position == end) {
                 break;
             }
-            String next_string;
-            if (next_base < code) {
-                // If the next base is in the map, get the string
-                next_string = codeToString[next_base];
-            } else {
-                // If the next base is not in the map, it has to be the edge case
-                // That we talked about in class. The next string can only be the current string
-                // Plus the first character of the current string
-                next_string = current_string + current_string.charAt(0);
-            }
-            // Add the current string plus the first character of the next string to the map
-            if (code < codeToString.length) {
-                codeToString[code] = current_string + next_string.charAt(0);
+            codes++;
+            // Add the match plus the next byte, which starts the next match, to the dictionary
+            byte next = buffer[position];
+            if (code < maxCode) {
+                dictionary.extend(next, code);
                 // Increment the code
                 code++;
             }
-            // Set the current string to the next string for the next iteration
-            current_string = next_string;
+            else if (resetPolicy.equals("full") || ratioDropped) {
+                // The table is full and no longer worth keeping, so start over with a fresh one
+                writer.write(CLEAR, code);
+                windowBits += size;
+                clears++;
+                tableSize = Math.max(tableSize, code);
+                context.initialize();
+                code = base;
+                baseline = 0;
+                ratioDropped = false;
+            }
+            if (windowChars >= RATIO_WINDOW) {
+                // Compare this window's output bits per input character to a baseline of the recent windows since
+                // the table filled. A window that did not shrink at all is not helped by the table, however the
+                // windows before it did, as when the table was filled from random bytes and the text has moved on
+                if (code == maxCode && resetPolicy.equals("ratio")) {
+                    double ratio = (double) windowBits / windowChars;
+                    if (ratio >= INCOMPRESSIBLE_RATIO) ratioDropped = true;
+                    else if (baseline == 0 || ratio < baseline) baseline = ratio;
+                    else if (ratio > baseline * (100 + resetThreshold) / 100) ratioDropped = true;
+                    // Otherwise let the baseline drift up toward this window, so that one unusually good window
+                    // does not stay the bar until the next CLEAR
+                    else baseline += (ratio - baseline) / BASELINE_WINDOWS;
+                }
+                textBytes += windowChars;
+                windowChars = 0;
+                windowBits = 0;
+            }
         }
-        // Close the output when done
-        BinaryStdOut.close();
+        // The final match has been written, so write EOF. Nothing was added to the dictionary after the final
+        // match, but expand() adds its entry for it before reading EOF, so write it as if that had happened
+        writer.write(EOF, Math.min(code + 1, maxCode));
+        crc.update(buffer, checked, end - checked);
+        textBytes += windowChars;
+        writeTrailer(writer, crc, textBytes);
+        context.count(textBytes, writer.bits(), codes + 1, clears, Math.max(tableSize, code));
     }
 
-    public static void main(String[] args) {
-        if      (args[0].equals("-")) compress();
-        else if (args[0].equals("+")) expand();
+    // Ends a stream of codes after its EOF with the checksum of the text since the last check,
+    // and the length of the whole text
+    private static void writeTrailer(CodeWriter writer, CRC32C crc, long textLength) {
+        writer.writeWord((int) crc.getValue());
+        writer.writeWord((int) (textLength >>> 32));
+        writer.writeWord((int) textLength);
+        writer.finish();
+    }
+
+    // Walks the dictionary from the given position for as long as it knows the bytes, stopping at the limit,
+    // and returns the length of the match. The dictionary is left at the match, so code() gives its code
+    private static int longestMatch(LZWDictionary dictionary, byte[] buffer, int position, int limit) {
+        dictionary.reset();
+        int length = 0;
+        while (position + length < limit && dictionary.advance(buffer[position + length])) {
+            length++;
+        }
+        return length;
+    }
+
+    // Flexible parsing: a match a little shorter than the longest one can leave the next match
+    // at a spot where it reaches further. Tries each length down to lookahead bytes shorter, and
+    // keeps the one whose own match plus the longest match after it covers the most input, by at
+    // least LOOKAHEAD_GAIN bytes, since a split that looks two matches ahead is only a guess. It
+    // is only called once the table is full: before then, the string a shorter match adds is one
+    // the dictionary already has, so its code goes unused, where the longest match would have
+    // added a new string, and on repetitive text that loss outweighs any gain in reach. The
+    // dictionary is left at the chosen match
+    private int flexibleMatch(LZWDictionary dictionary, byte[] buffer, int position, int limit, int longest) {
+        int best = longest;
+        int reach = longest + longestMatch(dictionary, buffer, position + longest, limit);
+        for (int length = longest - 1; length >= Math.max(1, longest - lookahead); length--) {
+            int next = length + longestMatch(dictionary, buffer, position + length, limit);
+            if (next >= reach + LOOKAHEAD_GAIN) {
+                reach = next;
+                best = length;
+            }
+        }
+        longestMatch(dictionary, buffer, position, position + best);
+        return best;
+    }
+
+    // Adds the counts of the stream of codes last encoded in a context to the stats and to its event
+    private void record(CompressionEvent event, String operation, Compressor context) {
+        record(event, operation, context.textBytes, context.codeBits, context.codes, context.clears, context.tableSize);
+    }
+
+    // Adds the counts of one stream of codes to the stats and to its Flight Recorder event, if there are any
+    private void record(CompressionEvent event, String operation, long textBytes, long codeBits, long codes,
+                        long clears, int tableSize) {
+        if (stats != null) {
+            stats.addStream(operation.equals("compress"), textBytes, codeBits, codes, clears, tableSize);
+        }
+        if (event != null) event.finish(operation, textBytes, (codeBits + 7) / 8, codes, clears, tableSize);
+    }
+
+    // Expands a single stream of codes, whose widest code is given by the header, up to its EOF,
+    // checking the text against the stream's checksums and length if it has them. Problems are
+    // reported at offsets in the whole text, where the stream's own text starts at offset. A listener,
+    // if there is one, is told about each code as it is read, and the stream is left out of the stats
+    void decode(BitInput in, BitOutput out, Header header, long offset, Decompressor context, CodeListener listener) {
+        // The codes come in through a reader that undoes compress()'s writer
+        CodeReader reader = context.reader(in, header.has(HUFFMAN));
+        boolean checked = header.has(CHECKS);
+        int maxCode = 1 << header.codeSize;
+        // Every code's string is the string of its prefix code plus one last byte, so the map from
+        // codes to strings is kept as flat arrays instead of as whole Strings. The context fills in
+        // the ASCII characters and the shared dictionary, and only the codes after them change
+        context.load(header.codeSize, header.dictionary);
+        int[] prefix = context.prefix;
+        byte[] last = context.last;
+        byte[] first = context.first;
+        int[] length = context.length;
+        int base = firstCode(header.dictionary);
+        // Strings are spelled out backwards into this chunk of text, which is added to the running
+        // checksum and written out whenever the next string does not fit. It only grows past CHUNK_SIZE
+        // for a longer string. The checksum is only compared at the next check or the trailer, so the
+        // chunks before a failed check have already been written
+        byte[] chunk = context.chunk;
+        int filled = 0;
+        CRC32C crc = context.crc;
+        crc.reset();
+        long nextCheck = CHECK_INTERVAL;
+        long lastCheck = 0;
+
+        // Initialize the code to be the first available code after ASCII, EOF, CLEAR and the shared dictionary
+        int code = base;
+        // The last code written, or -1 at the start and right after a CLEAR
+        int current_base = -1;
+
+        // Counts for the stats, kept in locals so that they cost next to nothing when no one reads them
+        CompressionEvent event = FlightRecorder.isInitialized() ? CompressionEvent.start() : null;
+        long textBytes = 0;
+        long codes = 0;
+        long clears = 0;
+        int tableSize = code;
+        if (listener != null) listener.start(reader);
+
+        try {
+            while (true) {
+                // Get the next base and handle EOF and CLEAR. Once there is a current base, the compressor
+                // has added its entry for it before writing the next base, so it is one code ahead of us
+                int next_code = (current_base < 0) ? code : Math.min(code + 1, maxCode);
+                int next_base = reader.read(next_code);
+                if (next_base == EOF) {
+                    if (listener != null) listener.eof(code);
+                    break;
+                }
+                if (next_base == CLEAR) {
+                    // The compressor started over with a fresh table, so we do too
+                    if (listener != null) listener.clear(code);
+                    clears++;
+                    tableSize = Math.max(tableSize, code);
+                    code = base;
+                    current_base = -1;
+                    continue;
+                }
+                boolean adding = current_base >= 0 && code < maxCode;
+                if (next_base > code || (next_base == code && !adding)) {
+                    throw new IllegalStateException("Illegal code = " + next_base + " after byte " + (offset + textBytes));
+                }
+                // Add the current string plus the first character of the next string to the map
+                if (adding) {
+                    // If the next base is not in the map, it has to be the edge case
+                    // That we talked about in class. The next string can only be the current string
+                    // Plus the first character of the current string
+                    prefix[code] = current_base;
+                    last[code] = (next_base == code) ? first[current_base] : first[next_base];
+                    first[code] = first[current_base];
+                    length[code] = length[current_base] + 1;
+                    // Increment the code
+                    code++;
+                }
+
+                // Spell out the next string backwards, from its last byte to its first, at the end of the chunk
+                int next_length = length[next_base];
+                if (filled + next_length > chunk.length) {
+                    writeChunk(out, chunk, filled, crc, checked);
+                    filled = 0;
+                    if (next_length > chunk.length) {
+                        chunk = new byte[Math.max(next_length, 2 * chunk.length)];
+                        context.chunk = chunk;
+                    }
+                }
+                for (int i = filled + next_length - 1, c = next_base; i >= filled; i--, c = prefix[c]) {
+                    chunk[i] = last[c];
+                }
+                // Make it the current string for the next iteration
+                filled += next_length;
+                current_base = next_base;
+                textBytes += next_length;
+                codes++;
+                if (listener != null) listener.text(next_base, next_length, code);
+                if (checked && textBytes >= nextCheck) {
+                    // The compressor wrote a checksum of the text since its last one right after this code
+                    writeChunk(out, chunk, filled, crc, true);
+                    filled = 0;
+                    verify(reader.readWord(), crc, offset + lastCheck, offset + textBytes);
+                    lastCheck = textBytes;
+                    nextCheck = textBytes + CHECK_INTERVAL;
+                    if (listener != null) listener.check();
+                }
+            }
+            writeChunk(out, chunk, filled, crc, checked);
+            if (checked) {
+                // The trailer holds the checksum of the rest of the text, then the length of all of it
+                verify(reader.readWord(), crc, offset + lastCheck, offset + textBytes);
+                long expected = ((long) reader.readWord() << 32) | (reader.readWord() & 0xffffffffL);
+                if (expected != textBytes) {
+                    throw new IllegalStateException("Stream expands to " + textBytes + " bytes instead of " + expected);
+                }
+            }
+        }
+        catch (NoSuchElementException e) {
+            throw new IllegalStateException("Stream is cut short after byte " + (offset + textBytes), e);
+        }
+        if (listener == null) record(event, "expand", textBytes, reader.bits(), codes, clears, Math.max(tableSize, code));
+    }
+
+    // Writes out the text in a chunk, adding it to the checksum if there is one
+    private static void writeChunk(BitOutput out, byte[] chunk, int filled, CRC32C crc, boolean checked) {
+        if (checked) crc.update(chunk, 0, filled);
+        out.write(chunk, 0, filled);
+    }
+
+    // Checks the checksum of the text from one byte to another against the one in the stream, and starts the next
+    private static void verify(int expected, CRC32C crc, long from, long to) {
+        if ((int) crc.getValue() != expected) {
+            throw new IllegalStateException("Checksum does not match for bytes " + from + " to " + to);
+        }
+        crc.reset();
+    }
+
+    public static void main(String[] args) throws IOException {
+        TextCompressor compressor = new TextCompressor();
+        // Options come after the command, as "--name value" pairs, along with optional input and output files
+        List<String> files = new ArrayList<>();
+        String range = null;
+        String batch = null;
+        CompressionStats stats = null;
+        boolean append = false;
+        boolean pipelined = false;
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                files.add(args[i]);
+                continue;
+            }
+            if (args[i].equals("--index")) {
+                compressor.setIndexed(true);
+                continue;
+            }
+            if (args[i].equals("--huffman")) {
+                compressor.setHuffman(true);
+                continue;
+            }
+            if (args[i].equals("--pipeline")) {
+                pipelined = true;
+                continue;
+            }
+            if (args[i].equals("--append")) {
+                append = true;
+                continue;
+            }
+            if (args[i].equals("--stats")) {
+                // Also publish the stats over JMX, so a long run can be watched while it goes
+                stats = new CompressionStats();
+                stats.register();
+                compressor.setStats(stats);
+                continue;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+            String value = args[++i];
+            if (args[i - 1].equals("--engine")) compressor.setEngine(value);
+            else if (args[i - 1].equals("--bits")) compressor.setMaxCodeSize(Integer.parseInt(value));
+            else if (args[i - 1].equals("--reset")) compressor.setResetPolicy(value);
+            else if (args[i - 1].equals("--reset-threshold")) compressor.setResetThreshold(Integer.parseInt(value));
+            else if (args[i - 1].equals("--block-size")) compressor.setBlockSize(Integer.parseInt(value));
+            else if (args[i - 1].equals("--threads")) compressor.setThreads(Integer.parseInt(value));
+            else if (args[i - 1].equals("--range")) range = value;
+            else if (args[i - 1].equals("--batch")) batch = value;
+            else if (args[i - 1].equals("--lookahead")) compressor.setLookahead(Integer.parseInt(value));
+            else if (args[i - 1].equals("--dict")) {
+                BitInput dictionary = BitInput.map(FileChannel.open(Paths.get(value), StandardOpenOption.READ));
+                compressor.setDictionary(SharedDictionary.read(dictionary));
+                dictionary.close();
+            }
+            else throw new IllegalArgumentException("Illegal command line argument: " + args[i - 1]);
+        }
+        if (args[0].equals("train")) {
+            // Train a dictionary on the sample file and save it to the dictionary file
+            if (files.size() != 2) throw new IllegalArgumentException("Expected a sample and a dictionary file");
+            BitInput sample = BitInput.map(FileChannel.open(Paths.get(files.get(0)), StandardOpenOption.READ));
+            SharedDictionary dictionary = SharedDictionary.train(sample, compressor.maxCodeSize);
+            sample.close();
+            BitOutput out = new BitOutput(FileChannel.open(Paths.get(files.get(1)), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            dictionary.write(out);
+            out.close();
+            System.err.println("Trained dictionary " + Integer.toHexString(dictionary.id()) + " with "
+                    + dictionary.size() + " strings");
+            return;
+        }
+        if (batch != null) {
+            // Code every input file into the batch directory, in one JVM
+            if (!args[0].equals("-") && !args[0].equals("+") || files.isEmpty()) {
+                throw new IllegalArgumentException("--batch codes input files: -|+ --batch out-dir input...");
+            }
+            BatchCompressor batchCompressor = new BatchCompressor(compressor, compressor.threads);
+            BatchCompressor.Report report = args[0].equals("-")
+                    ? batchCompressor.compress(files, Paths.get(batch))
+                    : batchCompressor.expand(files, Paths.get(batch));
+            System.err.println(report);
+            if (stats != null) System.err.println(stats);
+            if (!report.failures().isEmpty()) {
+                throw new IllegalStateException(report.failures().size() + " files could not be coded");
+            }
+            return;
+        }
+        if (range != null) {
+            // Expand just a range of an indexed file, to the output file or stdout
+            if (!args[0].equals("+") || files.isEmpty() || files.size() > 2) {
+                throw new IllegalArgumentException("--range expands an input file: + --range from:to input [output]");
+            }
+            String[] bounds = range.split(":");
+            try (FileChannel file = FileChannel.open(Paths.get(files.get(0)), StandardOpenOption.READ)) {
+                BitOutput out = (files.size() == 2)
+                        ? new BitOutput(FileChannel.open(Paths.get(files.get(1)), StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+                        : new BitOutput(System.out);
+                compressor.expand(file, Long.parseLong(bounds[0]), Long.parseLong(bounds[1]), out);
+                out.close();
+            }
+            if (stats != null) System.err.println(stats);
+            return;
+        }
+        if (files.size() != 0 && files.size() != 2) {
+            throw new IllegalArgumentException("Expected an input and an output file");
+        }
+
+        BitInput in;
+        BitOutput out;
+        if (pipelined) {
+            // Read ahead and write behind on threads of their own, so that coding never waits on a slow disk or pipe
+            ReadableByteChannel source = (files.size() == 2)
+                    ? FileChannel.open(Paths.get(files.get(0)), StandardOpenOption.READ)
+                    : Channels.newChannel(System.in);
+            WritableByteChannel target = (files.size() == 2)
+                    ? FileChannel.open(Paths.get(files.get(1)), StandardOpenOption.CREATE,
+                            append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                    : Channels.newChannel(System.out);
+            in = new BitInput(Pipeline.input(source));
+            out = new BitOutput(Pipeline.output(target));
+        }
+        else if (files.size() == 2) {
+            // Map the input file and write the output file through a direct buffer, instead of using stdin and stdout
+            // With --append, the output is added to the end of the file as another member
+            in = BitInput.map(FileChannel.open(Paths.get(files.get(0)), StandardOpenOption.READ));
+            out = new BitOutput(FileChannel.open(Paths.get(files.get(1)), StandardOpenOption.CREATE,
+                    append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        }
+        else {
+            in = new BitInput(System.in);
+            out = new BitOutput(System.out);
+        }
+        if      (args[0].equals("-")) compressor.compress(in, out);
+        else if (args[0].equals("+")) compressor.expand(in, out);
         else throw new IllegalArgumentException("Illegal command line argument");
+        in.close();
+        out.close();
+        if (stats != null) System.err.println(stats);
     }
 }
-